@@ -0,0 +1,410 @@
+package synth.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import synth.ModulationMatrix;
+import synth.Oscillator;
+import synth.ParameterStore;
+import synth.Synth;
+import synth.Voice;
+import synth.VoiceBank;
+import synth.dsp.BiquadFilter;
+import synth.dsp.Delay;
+import synth.dsp.FFT;
+import synth.dsp.FdnReverb;
+import synth.dsp.ImpulseResponse;
+import synth.dsp.LFOEngine;
+import synth.dsp.PartitionedConvolver;
+import synth.dsp.StateVariableFilter;
+import synth.ui.FFTProcessor;
+
+/**
+ * Baseline benchmarks for the DSP hot paths, one row per parameter combination:
+ *
+ * - oscillator: Oscillator.render by waveform and unison
+ * - voice: Voice.render by unison, filter and modulation
+ * - voiceBank: VoiceBank.mixVoices by polyphony and filter
+ * - biquad: BiquadFilter.process by type
+ * - stateVariable: StateVariableFilter.process by mode, with fixed and per-sample cutoff
+ * - delay: Delay.process with fixed and gliding time
+ * - reverb: FdnReverb.process by decay time
+ * - convolution: PartitionedConvolver.process by response length
+ * - lfo: LFOEngine.nextSample
+ * - spectrum, fft: FFTProcessor.processAudio and the bare FFT, by size
+ *
+ * Every benchmark is scored per audio sample, so scores read as ns/sample, and with
+ * {@code -prof gc} the {@code gc.alloc.rate.norm} row is bytes per sample; the
+ * audio-thread paths should show 0.
+ *
+ * Run with: java -jar Synthesizer/bench/target/benchmarks.jar -prof gc [regex]
+ * The optional regex selects benchmarks by name, e.g. "voiceBank|stateVariable".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class DspBench {
+    static final int BLOCK_FRAMES = 512;
+    private static final int FFT_FRAMES = 16384; // samples transformed per call, whatever the size
+    private static final double FREQ = 440.0;
+
+    @State(Scope.Thread)
+    public static class OscillatorState {
+        @Param // every constant
+        Synth.Waveform waveform;
+        @Param({"1", "2", "4", "8", "16"})
+        int unison;
+
+        final double[] out = new double[BLOCK_FRAMES];
+        Oscillator osc;
+
+        @Setup
+        public void setup() {
+            osc = new Oscillator(FREQ, waveform);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double oscillator(OscillatorState s) {
+        s.osc.render(s.out, 0, BLOCK_FRAMES, FREQ, 0.5f, s.unison, 0.3);
+        return s.out[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class VoiceState {
+        @Param({"1", "8"})
+        int unison;
+        @Param({"false", "true"})
+        boolean filter;
+        @Param({"false", "true"})
+        boolean mod;
+
+        final double[] bus = new double[BLOCK_FRAMES];
+        final double[] osc1 = new double[BLOCK_FRAMES];
+        final double[] osc2 = new double[BLOCK_FRAMES];
+        final ParameterStore.Snapshot snapshot = new ParameterStore.Snapshot();
+        final ModulationMatrix matrix = new ModulationMatrix();
+        final Voice voice = new Voice();
+
+        @Setup
+        public void setup() {
+            ParameterStore params = patch(unison, filter);
+            if (mod) {
+                modulate(params);
+            }
+            params.read(snapshot);
+            voice.start(FREQ, 1.0, Synth.Waveform.SAW, Synth.Waveform.SQUARE, 10, 100, 1000, 300, 0.7, 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double voice(VoiceState s) {
+        s.matrix.beginBlock(s.snapshot, BLOCK_FRAMES);
+        s.voice.render(s.bus, 0, BLOCK_FRAMES, s.osc1, s.osc2, s.snapshot, s.matrix);
+        return s.bus[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class VoiceBankState {
+        @Param({"1", "4", "16", "64"})
+        int polyphony;
+        @Param({"false", "true"})
+        boolean filter;
+
+        final double[] bus = new double[Synth.BUFFER_SIZE];
+        VoiceBank voiceBank;
+
+        @Setup
+        public void setup() {
+            voiceBank = new VoiceBank(patch(1, filter), polyphony, VoiceBank.StealPolicy.OLDEST);
+            for (int n = 0; n < polyphony; n++) {
+                voiceBank.noteOn(55.0 * Math.pow(2.0, n / 12.0), 0); // held for the whole run
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double voiceBank(VoiceBankState s) {
+        s.voiceBank.mixVoices(s.bus, BLOCK_FRAMES);
+        return s.bus[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class BiquadState {
+        @Param // every constant
+        BiquadFilter.Type type;
+
+        final double[] input = noise(BLOCK_FRAMES);
+        final double[] output = new double[BLOCK_FRAMES];
+        BiquadFilter filter;
+
+        @Setup
+        public void setup() {
+            filter = new BiquadFilter(type, Synth.SAMPLE_RATE, 1000.0, 2.0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double biquad(BiquadState s) {
+        s.filter.process(s.input, s.output, BLOCK_FRAMES);
+        return s.output[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class StateVariableState {
+        @Param // every constant
+        StateVariableFilter.Mode mode;
+        @Param({"fixed", "per-sample"})
+        String cutoff;
+
+        final double[] input = noise(BLOCK_FRAMES);
+        final double[] output = new double[BLOCK_FRAMES];
+        final double[] cutoffs = new double[BLOCK_FRAMES];
+        final StateVariableFilter filter = new StateVariableFilter();
+        boolean perSample;
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < BLOCK_FRAMES; i++) {
+                cutoffs[i] = 200.0 * Math.pow(50.0, i / (double) BLOCK_FRAMES);
+            }
+            filter.setCutoff(1000.0);
+            filter.setResonance(2.0);
+            perSample = cutoff.equals("per-sample");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double stateVariable(StateVariableState s) {
+        if (s.perSample) {
+            s.filter.process(s.input, s.output, s.cutoffs, BLOCK_FRAMES, s.mode);
+        } else {
+            s.filter.process(s.input, s.output, BLOCK_FRAMES, s.mode);
+        }
+        return s.output[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class DelayState {
+        @Param({"fixed", "gliding"})
+        String time;
+
+        final double[] input = noise(BLOCK_FRAMES);
+        final double[] bus = new double[BLOCK_FRAMES];
+        final Delay delay = new Delay(Synth.SAMPLE_RATE, 1.0);
+        boolean glide;
+        int call;
+
+        @Setup
+        public void setup() {
+            delay.setMix(0.4);
+            delay.setFeedback(0.35);
+            delay.setDamping(0.3);
+            delay.setTime(300.0);
+            glide = time.equals("gliding");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double delay(DelayState s) {
+        if (s.glide) {
+            s.delay.setTime((s.call++ & 1) == 0 ? 300.0 : 310.0);
+        }
+        System.arraycopy(s.input, 0, s.bus, 0, BLOCK_FRAMES); // a fresh block, as the bank hands over
+        s.delay.process(s.bus, BLOCK_FRAMES);
+        return s.bus[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class ReverbState {
+        @Param({"0.5", "2.0", "10.0"})
+        double decay;
+
+        final double[] input = noise(BLOCK_FRAMES);
+        final double[] bus = new double[BLOCK_FRAMES];
+        final FdnReverb reverb = new FdnReverb(Synth.SAMPLE_RATE);
+
+        @Setup
+        public void setup() {
+            reverb.setLevel(0.2);
+            reverb.setDecay(decay, 0.5);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double reverb(ReverbState s) {
+        System.arraycopy(s.input, 0, s.bus, 0, BLOCK_FRAMES);
+        s.reverb.process(s.bus, BLOCK_FRAMES);
+        return s.bus[BLOCK_FRAMES - 1];
+    }
+
+    /**
+     * A response no longer than the head runs entirely on the calling thread; longer
+     * ones add the tail worker, whose time is included here only when it overruns.
+     */
+    @State(Scope.Thread)
+    public static class ConvolutionState {
+        @Param({"0.09", "2.0", "5.0"})
+        double seconds;
+
+        final double[] input = noise(BLOCK_FRAMES);
+        final double[] bus = new double[BLOCK_FRAMES];
+        final PartitionedConvolver convolver = new PartitionedConvolver();
+
+        @Setup
+        public void setup() {
+            double[] samples = noise((int) (seconds * Synth.SAMPLE_RATE));
+            convolver.setImpulseResponse(ImpulseResponse.fromSamples("noise", samples, Synth.SAMPLE_RATE));
+            convolver.setLevel(0.3);
+        }
+
+        @TearDown
+        public void tearDown() {
+            convolver.close(); // one worker thread per trial otherwise piles up in the fork
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double convolution(ConvolutionState s) {
+        System.arraycopy(s.input, 0, s.bus, 0, BLOCK_FRAMES);
+        s.convolver.process(s.bus, BLOCK_FRAMES);
+        return s.bus[BLOCK_FRAMES - 1];
+    }
+
+    @State(Scope.Thread)
+    public static class LfoState {
+        final LFOEngine lfo = new LFOEngine();
+
+        @Setup
+        public void setup() {
+            lfo.setEnabled(true);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public double lfo(LfoState s) {
+        double acc = 0.0;
+        for (int i = 0; i < BLOCK_FRAMES; i++) {
+            acc += s.lfo.nextSample(5.0, 0.5);
+        }
+        return acc;
+    }
+
+    @State(Scope.Thread)
+    public static class SpectrumState {
+        @Param({"512", "4096", "16384"})
+        int size;
+
+        final byte[] pcm = new byte[BLOCK_FRAMES * 2];
+        FFTProcessor processor;
+
+        @Setup
+        public void setup() {
+            double[] input = noise(BLOCK_FRAMES);
+            for (int i = 0; i < BLOCK_FRAMES; i++) {
+                int sample = (int) (input[i] * 0.5 * Short.MAX_VALUE);
+                pcm[i * 2] = (byte) sample;
+                pcm[i * 2 + 1] = (byte) (sample >> 8);
+            }
+            processor = new FFTProcessor(size, size / 4);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_FRAMES)
+    public void spectrum(SpectrumState s, Blackhole blackhole) {
+        blackhole.consume(s.processor.processAudio(s.pcm));
+    }
+
+    @State(Scope.Thread)
+    public static class FftState {
+        @Param({"512", "2048", "8192"})
+        int size;
+
+        double[] samples;
+        double[] re;
+        double[] im;
+        FFT fft;
+
+        @Setup
+        public void setup() {
+            fft = new FFT(size);
+            samples = noise(size);
+            re = new double[size / 2 + 1];
+            im = new double[size / 2 + 1];
+        }
+    }
+
+    /** {@value #FFT_FRAMES} samples' worth of transforms, so every size is scored per sample. */
+    @Benchmark
+    @OperationsPerInvocation(FFT_FRAMES)
+    public double fft(FftState s) {
+        double acc = 0.0;
+        for (int done = 0; done < FFT_FRAMES; done += s.size) {
+            s.fft.realForward(s.samples, s.re, s.im);
+            acc += s.re[1];
+        }
+        return acc;
+    }
+
+    static ParameterStore patch(int unison, boolean filter) {
+        ParameterStore params = new ParameterStore();
+        params.set(ParameterStore.Param.VOICES1, unison);
+        params.set(ParameterStore.Param.VOICES2, unison);
+        params.set(ParameterStore.Param.DETUNE1, 30);
+        params.set(ParameterStore.Param.DETUNE2, 30);
+        params.set(ParameterStore.Param.WAVEFORM1, Synth.Waveform.SAW.ordinal());
+        params.set(ParameterStore.Param.WAVEFORM2, Synth.Waveform.SQUARE.ordinal());
+        params.set(ParameterStore.Param.FILTER_ENABLED, filter);
+        return params;
+    }
+
+    /** Vibrato from LFO 1, LFO 2 on cutoff on top of the filter envelope, and the mod envelope on volume. */
+    static void modulate(ParameterStore params) {
+        params.set(ParameterStore.Param.FILTER_ENV, 50);
+        params.set(ParameterStore.Param.LFO_ENABLED, true);
+        params.set(ParameterStore.Param.LFO_TARGET, ModulationMatrix.Destination.PITCH.ordinal());
+        params.set(ParameterStore.Param.LFO_DEPTH, 2);
+        params.set(ParameterStore.Param.MOD1_SOURCE, ModulationMatrix.Source.LFO2.ordinal());
+        params.set(ParameterStore.Param.MOD1_DEST, ModulationMatrix.Destination.CUTOFF.ordinal());
+        params.set(ParameterStore.Param.MOD1_AMOUNT, 50);
+        params.set(ParameterStore.Param.MOD2_SOURCE, ModulationMatrix.Source.MOD_ENV.ordinal());
+        params.set(ParameterStore.Param.MOD2_DEST, ModulationMatrix.Destination.VOLUME.ordinal());
+        params.set(ParameterStore.Param.MOD2_AMOUNT, -50);
+    }
+
+    static double[] noise(int length) {
+        Random random = new Random(1);
+        double[] data = new double[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = random.nextDouble() * 2.0 - 1.0;
+        }
+        return data;
+    }
+}
@@ -1,77 +1,51 @@
 package synth;
 
+import synth.dsp.EnvelopeGenerator;
+
+/**
+ * Free-running one-shot envelope: attacks on construction, decays to a 0.5 sustain,
+ * holds for the sustain time and then releases on its own, or earlier on
+ * {@link #noteOff}. All stages are exponential. Runs on the same
+ * {@link EnvelopeGenerator} as {@link Voice}.
+ */
 public class ADSR {
-    private final int attackSamples;
-    private final int decaySamples;
-    private final int sustainSamples;
-    private final int releaseSamples;
-    private final double sustainLevel;
-    private boolean noteOff;
-    private long sampleIndex;
-    private long releaseStartIndex;
     private static final double SAMPLE_RATE = Synth.SAMPLE_RATE;
-    private static final double ENVELOPE_SMOOTHING = 0.95;
-    private static final double TWO_PI = 2.0 * Math.PI;
+    private static final double SUSTAIN_LEVEL = 0.5;
+
+    private final EnvelopeGenerator envelope = new EnvelopeGenerator(
+        EnvelopeGenerator.Curve.EXPONENTIAL, EnvelopeGenerator.Curve.EXPONENTIAL, EnvelopeGenerator.Curve.EXPONENTIAL);
 
     public ADSR(int attackMs, int decayMs, int sustainMs, int releaseMs) {
-        this.attackSamples = Math.max(1, (int)(attackMs * SAMPLE_RATE / 1000.0));
-        this.decaySamples = Math.max(1, (int)(decayMs * SAMPLE_RATE / 1000.0));
-        this.sustainSamples = Math.max(1, (int)(sustainMs * SAMPLE_RATE / 1000.0));
-        this.releaseSamples = Math.max(1, (int)(releaseMs * SAMPLE_RATE / 1000.0));
-        this.sustainLevel = 0.5;
-        this.sampleIndex = 0;
-        this.noteOff = false;
+        envelope.setTimes(toSamples(attackMs), toSamples(decayMs), Math.max(1, toSamples(sustainMs)),
+                          toSamples(releaseMs), SUSTAIN_LEVEL);
+        envelope.noteOn();
+    }
+
+    private static int toSamples(int ms) {
+        return (int)(ms * SAMPLE_RATE / 1000.0);
     }
 
     public void noteOff() {
-        if (!noteOff) {
-            noteOff = true;
-            releaseStartIndex = sampleIndex;
-        } 
+        envelope.noteOff();
     }
 
     public boolean isFinished() {
-        if (!noteOff) return false;
-        return (sampleIndex - releaseStartIndex) >= releaseSamples;
+        return envelope.isIdle();
     }
 
+    /** Next {@link Synth#BUFFER_SIZE} envelope values in a new array. */
     public double[] nextBuffer() {
         double[] buffer = new double[Synth.BUFFER_SIZE];
-        double prevEnv = 0.0;
-
-        for (int i = 0; i < buffer.length; i++) {
-            long idx = sampleIndex + i;
-            double env;
-
-            if (noteOff) {
-                long relIdx = idx - releaseStartIndex;
-                if (relIdx >= releaseSamples) {
-                    env = 0.0;
-                } else {
-                    double t = (double)relIdx / releaseSamples;
-                    env = sustainLevel * Math.exp(-5.0 * t);
-                }
-            } else {
-                if (idx < attackSamples) {
-                    double t = idx / (double)attackSamples;
-                    env = 1.0 - Math.exp(-5.0 * t);
-                } else if (idx < attackSamples + decaySamples) {
-                    double t = (idx - attackSamples) / (double)decaySamples;
-                    env = sustainLevel + (1.0 - sustainLevel) * Math.exp(-5.0 * t);
-                } else if (idx < attackSamples + decaySamples + sustainSamples) {
-                    env = sustainLevel;
-                } else {
-                    env = 0.0;
-                }
-            }
-
-            // Smooth envelope transitions
-            double smoothedEnv = (prevEnv * ENVELOPE_SMOOTHING + env * (1.0 - ENVELOPE_SMOOTHING));
-            prevEnv = smoothedEnv;
-            buffer[i] = smoothedEnv;
-        }
-
-        sampleIndex += buffer.length;
+        nextBuffer(buffer, 0, buffer.length);
         return buffer;
     }
-} 
\ No newline at end of file
+
+    /**
+     * Writes the next {@code frames} envelope values into {@code out} without allocating.
+     *
+     * @return frames written before the envelope finished
+     */
+    public int nextBuffer(double[] out, int offset, int frames) {
+        return envelope.render(out, offset, frames);
+    }
+}
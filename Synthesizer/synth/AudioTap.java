@@ -0,0 +1,142 @@
+package synth;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wait-free ring that lets the audio thread publish its output to any number of
+ * analysis consumers (spectrum, meters, recorders) without ever blocking on them.
+ *
+ * One thread writes; it copies each block in and moves on, overwriting the oldest
+ * frames. Each consumer reads through its own {@link Reader} on its own thread and at
+ * its own rate. A reader that falls behind by more than the capacity, or whose copy
+ * the writer laps mid-read, loses those frames and counts an overrun; nothing waits.
+ *
+ * Consistency works like a seqlock: the writer advances {@code claimed} before it
+ * touches the ring and {@code written} after, and a reader checks {@code claimed}
+ * after copying to see whether any frame it copied might have been overwritten.
+ */
+public final class AudioTap {
+    private final double[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(); // frames the writer has started writing
+    private final AtomicLong written = new AtomicLong(); // frames fully written and readable
+
+    /**
+     * @param capacity frames kept, rounded up to a power of two
+     */
+    public AudioTap(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.ring = new double[size];
+        this.mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /** Total frames published so far; a reader can poll this to see if anything is new. */
+    public long getWritePosition() {
+        return written.get();
+    }
+
+    /**
+     * Writer side: appends {@code frames} samples from {@code src}. Never blocks or
+     * allocates; blocks larger than the capacity keep only their tail.
+     */
+    public void write(double[] src, int frames) {
+        int offset = Math.max(0, frames - ring.length);
+        int count = frames - offset;
+        long start = written.get();
+        claimed.set(start + count);
+        VarHandle.storeStoreFence(); // the claim is visible before any overwritten sample
+
+        int index = (int) start & mask;
+        int first = Math.min(count, ring.length - index);
+        System.arraycopy(src, offset, ring, index, first);
+        System.arraycopy(src, offset + first, ring, 0, count - first);
+
+        written.set(start + count);
+    }
+
+    /** Creates an independent cursor that starts at the current write position. */
+    public Reader newReader() {
+        return new Reader();
+    }
+
+    /** One consumer's view of the tap. Not thread-safe; use one reader per thread. */
+    public final class Reader {
+        private long position = written.get();
+        private long overruns;
+
+        /**
+         * Copies the next unread frames, up to {@code maxFrames}, into {@code dst} in
+         * order. If the writer has lapped this reader, the lost frames are skipped and
+         * an overrun is counted.
+         *
+         * @return frames copied, 0 if nothing new is available
+         */
+        public int read(double[] dst, int maxFrames) {
+            while (true) {
+                long end = written.get();
+                if (end - position > ring.length) {
+                    overruns++;
+                    position = end - ring.length;
+                }
+                int count = (int) Math.min(maxFrames, end - position);
+                copy(position, dst, count);
+                if (intact(position)) {
+                    position += count;
+                    return count;
+                }
+                overruns++; // lapped during the copy; start over from the oldest intact frame
+                position = claimed.get() - ring.length;
+            }
+        }
+
+        /**
+         * Copies the most recent {@code frames} frames into {@code dst} without
+         * consuming anything; frames from before the tap started read as silence.
+         *
+         * @return false if the writer overwrote the window while it was being copied
+         *         (counted as an overrun); {@code dst} then holds no consistent window
+         */
+        public boolean readLatest(double[] dst, int frames) {
+            frames = Math.min(frames, ring.length);
+            long end = written.get();
+            long start = end - frames;
+            int silent = (int) Math.max(0, -start);
+            Arrays.fill(dst, 0, silent, 0.0);
+            copy(start + silent, dst, silent, frames - silent);
+            if (intact(start)) {
+                position = end;
+                return true;
+            }
+            overruns++;
+            return false;
+        }
+
+        /** Times this reader lost data because the writer got a full ring ahead. */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        private void copy(long from, double[] dst, int count) {
+            copy(from, dst, 0, count);
+        }
+
+        private void copy(long from, double[] dst, int dstOffset, int count) {
+            int index = (int) from & mask;
+            int first = Math.min(count, ring.length - index);
+            System.arraycopy(ring, index, dst, dstOffset, first);
+            System.arraycopy(ring, 0, dst, dstOffset + first, count - first);
+        }
+
+        /** True if no frame from {@code from} onwards can have been overwritten yet. */
+        private boolean intact(long from) {
+            VarHandle.loadLoadFence(); // the copy is complete before the claim is re-read
+            return claimed.get() - from <= ring.length;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package synth;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Audio engine health, exposed over JMX as {@value #OBJECT_NAME} for JConsole or a
+ * local exporter.
+ *
+ * The audio thread records each block with {@link #recordBlock}, which only updates
+ * primitive counters and a fixed histogram, so it allocates nothing and never locks.
+ * Readers see those fields without synchronization: a scrape may mix values from two
+ * neighbouring blocks, which is fine for monitoring. A reset is a request the audio
+ * thread carries out at its next block, so the counters keep a single writer.
+ *
+ * GC pauses arrive as platform notifications on their own thread, after the fact; they
+ * are matched against the start and end times of the last {@value #WINDOW_RING}
+ * blocks to count the blocks they overlapped.
+ */
+public final class EngineMetrics implements EngineMetricsMBean {
+    public static final String OBJECT_NAME = "synth:type=AudioEngine";
+    private static final int WINDOW_RING = 1024;
+
+    private final VoiceBank voiceBank;
+    private final int sampleRate;
+
+    // Written only by the audio thread
+    private final Histogram renderTimes = new Histogram();
+    private volatile long blocks;
+    private volatile long renderNanosSum;
+    private volatile long renderNanosMin = Long.MAX_VALUE;
+    private volatile long renderNanosMax;
+    private volatile long periodNanos;
+    private volatile long deadlineMisses;
+    private volatile long underruns;
+    private volatile int peakVoices;
+    private volatile boolean resetRequested;
+    private final long[] windowStart = new long[WINDOW_RING];
+    private final long[] windowEnd = new long[WINDOW_RING];
+    private volatile long windowCount;
+
+    // Written by the GC notification thread and error handling
+    private final AtomicLong gcPauses = new AtomicLong();
+    private final AtomicLong gcPauseMillis = new AtomicLong();
+    private final AtomicLong gcOverlappedBlocks = new AtomicLong();
+    private final AtomicLong renderErrors = new AtomicLong();
+    private volatile String lastError = "";
+
+    private final NotificationListener gcListener = this::onGcNotification;
+
+    public EngineMetrics(VoiceBank voiceBank, int sampleRate) {
+        this.voiceBank = voiceBank;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Registers this bean with the platform MBean server, replacing any earlier engine's,
+     * and starts listening for GC pauses. Failure is reported and otherwise ignored:
+     * the engine runs the same without monitoring.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Engine metrics not available over JMX: " + e.getMessage());
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+            }
+        }
+    }
+
+    /** Unregisters the bean and stops listening for GC pauses. */
+    public void unregister() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) gc).removeNotificationListener(gcListener);
+                } catch (JMException ignored) {
+                    // never added to this collector
+                }
+            }
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException ignored) {
+            // not registered, or replaced by another engine
+        }
+    }
+
+    // ---- audio thread ----
+
+    /**
+     * Records one block of {@code frames} frames rendered between the two
+     * {@link System#nanoTime} stamps, with {@code activeVoices} voices sounding after it.
+     */
+    public void recordBlock(long startNanos, long endNanos, int frames, int activeVoices) {
+        if (resetRequested) {
+            clear();
+            resetRequested = false;
+        }
+        long nanos = endNanos - startNanos;
+        long period = frames * 1_000_000_000L / sampleRate;
+        renderTimes.record(nanos);
+        renderNanosSum += nanos;
+        if (nanos < renderNanosMin) {
+            renderNanosMin = nanos;
+        }
+        if (nanos > renderNanosMax) {
+            renderNanosMax = nanos;
+        }
+        if (nanos > period) {
+            deadlineMisses++;
+        }
+        if (activeVoices > peakVoices) {
+            peakVoices = activeVoices;
+        }
+        periodNanos = period;
+        blocks++;
+
+        int slot = (int) (windowCount % WINDOW_RING);
+        windowStart[slot] = startNanos;
+        windowEnd[slot] = endNanos;
+        windowCount++; // publishes the window
+    }
+
+    /** Records a period that found the device buffer empty. */
+    public void recordUnderrun() {
+        underruns++;
+    }
+
+    /** Records an exception that escaped a block; called from the audio thread's handler. */
+    public void recordError(Exception e) {
+        renderErrors.incrementAndGet();
+        lastError = String.valueOf(e);
+    }
+
+    private void clear() {
+        renderTimes.clear();
+        blocks = 0;
+        renderNanosSum = 0;
+        renderNanosMin = Long.MAX_VALUE;
+        renderNanosMax = 0;
+        deadlineMisses = 0;
+        underruns = 0;
+        peakVoices = 0;
+    }
+
+    // ---- GC notification thread ----
+
+    private void onGcNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        // ZGC and Shenandoah report their concurrent cycles separately from their pauses
+        if (info.getGcName().endsWith("Cycles")) {
+            return;
+        }
+        gcPauses.incrementAndGet();
+        gcPauseMillis.addAndGet(info.getGcInfo().getDuration());
+
+        // GC times are milliseconds of JVM uptime; map them onto the nanoTime clock
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        long uptimeOrigin = System.nanoTime() - runtime.getUptime() * 1_000_000L;
+        long pauseStart = uptimeOrigin + info.getGcInfo().getStartTime() * 1_000_000L;
+        long pauseEnd = uptimeOrigin + info.getGcInfo().getEndTime() * 1_000_000L;
+
+        long count = windowCount;
+        long overlapped = 0;
+        for (long i = Math.max(0, count - WINDOW_RING); i < count; i++) {
+            int slot = (int) (i % WINDOW_RING);
+            if (windowStart[slot] <= pauseEnd && windowEnd[slot] >= pauseStart) {
+                overlapped++;
+            }
+        }
+        gcOverlappedBlocks.addAndGet(overlapped);
+    }
+
+    // ---- MBean ----
+
+    @Override
+    public long getBlockCount() {
+        return blocks;
+    }
+
+    @Override
+    public double getRenderTimeMinMicros() {
+        long min = renderNanosMin;
+        return min == Long.MAX_VALUE ? 0.0 : min / 1000.0;
+    }
+
+    @Override
+    public double getRenderTimeAvgMicros() {
+        long n = blocks;
+        return n == 0 ? 0.0 : renderNanosSum / 1000.0 / n;
+    }
+
+    @Override
+    public double getRenderTimeP99Micros() {
+        return renderTimes.percentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getRenderTimeMaxMicros() {
+        return renderNanosMax / 1000.0;
+    }
+
+    @Override
+    public double getPeriodMicros() {
+        return periodNanos / 1000.0;
+    }
+
+    @Override
+    public double getHeadroomAvgPercent() {
+        return headroom(getRenderTimeAvgMicros());
+    }
+
+    @Override
+    public double getHeadroomMinPercent() {
+        return headroom(getRenderTimeMaxMicros());
+    }
+
+    private double headroom(double renderMicros) {
+        double period = getPeriodMicros();
+        return period == 0.0 ? 100.0 : 100.0 * (period - renderMicros) / period;
+    }
+
+    @Override
+    public long getDeadlineMisses() {
+        return deadlineMisses;
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    @Override
+    public int getActiveVoices() {
+        return voiceBank.getActiveVoiceCount();
+    }
+
+    @Override
+    public int getPeakVoices() {
+        return peakVoices;
+    }
+
+    @Override
+    public int getMaxVoices() {
+        return voiceBank.getMaxVoices();
+    }
+
+    @Override
+    public int getQueuedEvents() {
+        return voiceBank.getQueuedEventCount();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return voiceBank.getDroppedEventCount();
+    }
+
+    @Override
+    public long getGcPauses() {
+        return gcPauses.get();
+    }
+
+    @Override
+    public long getGcPauseTimeMillis() {
+        return gcPauseMillis.get();
+    }
+
+    @Override
+    public long getGcOverlappedBlocks() {
+        return gcOverlappedBlocks.get();
+    }
+
+    @Override
+    public long getRenderErrors() {
+        return renderErrors.get();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public void resetStatistics() {
+        resetRequested = true;
+        gcPauses.set(0);
+        gcPauseMillis.set(0);
+        gcOverlappedBlocks.set(0);
+        renderErrors.set(0);
+        lastError = "";
+    }
+
+    /**
+     * Log-linear histogram of nanosecond durations: values below 16 get a bucket each,
+     * every power of two above that is split into 8 buckets, so a bucket is at most 12.5%
+     * of its lower bound wide. One writer; readers tolerate a count in flight.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+        private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+
+        void record(long value) {
+            counts[index(Math.max(0, value))]++;
+            total++;
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            total = 0;
+        }
+
+        /** Upper bound of the bucket holding the {@code quantile} value, 0 if empty. */
+        long percentile(double quantile) {
+            long n = total;
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exp - SUB_BITS - 1) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int exp = (index - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+            int sub = (index - LINEAR) % SUB_BUCKETS;
+            long width = 1L << (exp - SUB_BITS);
+            return (SUB_BUCKETS + sub) * width + width - 1;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package synth;
+
+/**
+ * Management interface of {@link EngineMetrics}, registered as
+ * {@value EngineMetrics#OBJECT_NAME}. Times are in microseconds and cover every block
+ * since start or since the last {@link #resetStatistics}.
+ */
+public interface EngineMetricsMBean {
+    /** Blocks rendered. */
+    long getBlockCount();
+
+    double getRenderTimeMinMicros();
+
+    double getRenderTimeAvgMicros();
+
+    /** 99th percentile, from a histogram with buckets 12.5% wide; reads high, never low. */
+    double getRenderTimeP99Micros();
+
+    double getRenderTimeMaxMicros();
+
+    /** Playback time of one block, the render deadline. */
+    double getPeriodMicros();
+
+    /** Share of the period left over by the average block. */
+    double getHeadroomAvgPercent();
+
+    /** Share of the period left over by the slowest block; negative means a late block. */
+    double getHeadroomMinPercent();
+
+    /** Blocks whose rendering took longer than their period. */
+    long getDeadlineMisses();
+
+    /** Periods that found the device buffer already empty (audible dropouts). */
+    long getUnderruns();
+
+    int getActiveVoices();
+
+    int getPeakVoices();
+
+    int getMaxVoices();
+
+    int getQueuedEvents();
+
+    long getDroppedEvents();
+
+    /** Stop-the-world collections seen while the engine was running. */
+    long getGcPauses();
+
+    long getGcPauseTimeMillis();
+
+    /** Blocks whose rendering overlapped a collection pause. */
+    long getGcOverlappedBlocks();
+
+    /** Exceptions caught on the audio thread. */
+    long getRenderErrors();
+
+    /** Message of the last such exception, or an empty string. */
+    String getLastError();
+
+    /** Clears the block statistics and counters; voice and event gauges are live anyway. */
+    void resetStatistics();
+}
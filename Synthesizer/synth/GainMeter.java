@@ -3,35 +3,93 @@ package synth;
 import java.awt.*;
 import javax.swing.*;
 
+/**
+ * Output meter. Polls the engine's {@link OutputLevels} on the EDT and applies meter
+ * ballistics there: the peak reading attacks instantly and falls back at a fixed
+ * 20 dB per 1.7 s like a PPM; the RMS reading integrates with a 300 ms time constant
+ * like a VU meter; the clip light holds for a second after the last clipped sample.
+ * The audio thread only publishes numbers and never touches this component.
+ */
 public class GainMeter extends JPanel {
-    private int peak = 0;
+    public static final double MIN_DB = -60.0;
+    private static final int POLL_MS = 30;
+    private static final double PEAK_FALL_DB_PER_SECOND = 20.0 / 1.7;
+    private static final double RMS_TIME_CONSTANT = 0.3;
+    private static final long CLIP_HOLD_NANOS = 1_000_000_000L;
+
+    private OutputLevels source;
+    private double peakDb = MIN_DB;
+    private double rms = 0.0;
+    private long clipCount = 0;
+    private long clipUntil = 0;
     private boolean clipping = false;
+    private long lastPoll = System.nanoTime();
 
     public GainMeter() {
         setPreferredSize(new Dimension(20, 100));
         setBackground(Color.BLACK);
 
-        Timer timer = new Timer(30, e -> {
-            if (peak > 0) {
-                peak -= 2; // Decay
-                peak = Math.max(peak, 0);
-            }
-            clipping = false; // Reset clipping
+        Timer timer = new Timer(POLL_MS, e -> {
+            poll();
             repaint();
         });
         timer.start();
     }
 
-    public void updatePeak(int value) {
-        peak = Math.min(127, Math.max(peak, value));
+    /** Meters {@code levels} from now on; the output stage publishes into it every block. */
+    public void attach(OutputLevels levels) {
+        this.source = levels;
+    }
+
+    private void poll() {
+        long now = System.nanoTime();
+        double seconds = (now - lastPoll) / 1e9;
+        lastPoll = now;
+
+        long levels = source != null ? source.take() : 0L;
+        double blockPeakDb = toDb(OutputLevels.peak(levels));
+        if (blockPeakDb >= peakDb) {
+            peakDb = blockPeakDb;
+        } else {
+            peakDb = Math.max(blockPeakDb, peakDb - PEAK_FALL_DB_PER_SECOND * seconds);
+        }
+        rms += (OutputLevels.rms(levels) - rms) * (1.0 - Math.exp(-seconds / RMS_TIME_CONSTANT));
+
+        int clipped = OutputLevels.clippedSamples(levels);
+        if (clipped > 0) {
+            clipCount += clipped;
+            clipUntil = now + CLIP_HOLD_NANOS;
+        }
+        clipping = now - clipUntil < 0;
+    }
+
+    private static double toDb(double level) {
+        return level > 0.0 ? Math.max(MIN_DB, 20.0 * Math.log10(level)) : MIN_DB;
+    }
+
+    /** Peak reading in dBFS, {@link #MIN_DB} to about +6. */
+    public double getPeakDb() {
+        return peakDb;
+    }
+
+    /** RMS reading in dBFS, {@link #MIN_DB} to about +6. */
+    public double getRmsDb() {
+        return toDb(rms);
+    }
+
+    /** Peak reading as a meter position: 0 at {@link #MIN_DB}, 1 at full scale. */
+    public double getPeakLevel() {
+        return 1.0 - peakDb / MIN_DB;
     }
 
-    public void markClipping() {
-        clipping = true;
+    /** RMS reading as a meter position: 0 at {@link #MIN_DB}, 1 at full scale. */
+    public double getRmsLevel() {
+        return 1.0 - getRmsDb() / MIN_DB;
     }
 
-    public int getPeak() {
-        return peak;
+    /** Samples clipped by the output stage since this meter was attached. */
+    public long getClipCount() {
+        return clipCount;
     }
 
     public boolean isClipping() {
@@ -42,9 +100,11 @@ public class GainMeter extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         int h = getHeight();
-        int barHeight = (int)((peak / 127.0) * h);
+        int rmsHeight = (int) (Math.min(1.0, getRmsLevel()) * h);
+        int peakY = h - (int) (Math.min(1.0, getPeakLevel()) * h);
 
         g.setColor(clipping ? Color.RED : Color.GREEN);
-        g.fillRect(0, h - barHeight, getWidth(), barHeight);
+        g.fillRect(0, h - rmsHeight, getWidth(), rmsHeight);
+        g.drawLine(0, peakY, getWidth(), peakY);
     }
-}
\ No newline at end of file
+}
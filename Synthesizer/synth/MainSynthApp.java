@@ -18,8 +18,16 @@ public class MainSynthApp {
                 ModulationPanel mod = new ModulationPanel();
                 FXPanel fx = new FXPanel();
                 GainMeter gainMeter = new GainMeter();
-                VoiceBank voiceBank = new VoiceBank(controls, gainMeter, mod);
+
+                // UI controls publish into the store; the audio thread only reads snapshots of it
+                ParameterStore params = new ParameterStore();
+                controls.bind(params);
+                mod.bind(params);
+                fx.bind(params);
+                VoiceBank voiceBank = new VoiceBank(params);
+                fx.attach(voiceBank.getEffects());
                 VisualKeyboard keyboard = new VisualKeyboard(voiceBank, 48, 72); // C3 to C5
+                gainMeter.attach(Mixer.getOutputLevels());
                 GainVisualizer gain = new GainVisualizer(gainMeter);
                 SpectrumAnalyzer spectrum = new SpectrumAnalyzer(controls);
 
@@ -56,6 +64,7 @@ public class MainSynthApp {
                 spectrumWrapper.setBorder(BorderFactory.createTitledBorder("Frequency Spectrum"));
                 spectrumWrapper.setPreferredSize(new Dimension(0, 140));
                 spectrumWrapper.add(spectrum, BorderLayout.CENTER);
+                spectrumWrapper.add(gain, BorderLayout.EAST);
                 mainArea.add(spectrumWrapper, BorderLayout.NORTH);
                 
                 // Add oscillator, modulation, and fx panels in the middle
@@ -81,6 +90,8 @@ public class MainSynthApp {
                 frame.pack();
                 frame.setVisible(true);
 
+                // -Dsynth.renderThreads=N spreads voice rendering over N threads
+                voiceBank.setRenderThreads(Integer.getInteger("synth.renderThreads", 1));
                 Mixer.start(voiceBank, controls, spectrum);
             } catch (Exception e) {
                 e.printStackTrace();
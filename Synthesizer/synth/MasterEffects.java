@@ -0,0 +1,122 @@
+package synth;
+
+import synth.ParameterStore.Param;
+import synth.dsp.Delay;
+import synth.dsp.FdnReverb;
+import synth.dsp.ImpulseResponse;
+import synth.dsp.PartitionedConvolver;
+
+/**
+ * Effects on the summed voice bus, run by {@link VoiceBank} at the end of every block
+ * before the output stage quantizes it: the delay, then the reverb, then the
+ * convolution reverb. Everything is preallocated here, so enabling an effect never
+ * allocates on the audio thread; the convolver and its worker thread are created by
+ * the first {@link #setImpulseResponse}, on the caller's thread, and stopped by
+ * {@link #close}.
+ */
+public final class MasterEffects {
+    private static final double MAX_DELAY_SECONDS = 1.0; // the FX panel's delay time range tops out at 1000 ms
+
+    private final Delay delay = new Delay(Synth.SAMPLE_RATE, MAX_DELAY_SECONDS);
+    private final FdnReverb reverb = new FdnReverb(Synth.SAMPLE_RATE);
+    private volatile PartitionedConvolver convolver;
+    private boolean delayOn;
+    private boolean reverbOn;
+    private boolean convolutionOn;
+    private boolean realTime = true;
+
+    /** Processes {@code frames} samples of {@code bus} in place with the block's parameters. */
+    public void process(double[] bus, int frames, ParameterStore.Snapshot params) {
+        boolean delayEnabled = params.getBoolean(Param.DELAY_ENABLED);
+        if (delayEnabled) {
+            if (!delayOn) {
+                delay.reset(); // don't replay echoes left over from before it was switched off
+            }
+            delay.setTime(params.get(Param.DELAY_TIME));
+            delay.setMix(params.get(Param.DELAY_MIX) / 100.0);
+            delay.setFeedback(params.get(Param.DELAY_FEEDBACK) / 100.0);
+            delay.setDamping(params.get(Param.DELAY_DAMPING) / 100.0);
+            delay.process(bus, frames);
+        }
+        delayOn = delayEnabled;
+
+        // No separate switch: an amount of zero bypasses the reverb
+        double reverbAmount = params.get(Param.REVERB_AMOUNT) / 100.0;
+        boolean reverbEnabled = reverbAmount > 0.0;
+        if (reverbEnabled) {
+            if (!reverbOn) {
+                reverb.reset();
+            }
+            reverb.setLevel(reverbAmount);
+            reverb.setDecay(params.get(Param.REVERB_DECAY) / 10.0, params.get(Param.REVERB_DAMPING) / 100.0);
+            reverb.process(bus, frames);
+        }
+        reverbOn = reverbEnabled;
+
+        PartitionedConvolver conv = convolver;
+        double convolutionAmount = params.get(Param.CONVOLUTION_AMOUNT) / 100.0;
+        boolean convolutionEnabled = conv != null && convolutionAmount > 0.0;
+        if (convolutionEnabled) {
+            if (!convolutionOn) {
+                conv.reset();
+            }
+            conv.setLevel(convolutionAmount);
+            conv.process(bus, frames);
+        }
+        convolutionOn = convolutionEnabled;
+    }
+
+    /**
+     * Switches the convolution reverb to {@code response}, prepared off the audio thread
+     * with {@link ImpulseResponse#load}; it crossfades in over a tail partition that
+     * starts within about 140 ms.
+     */
+    public synchronized void setImpulseResponse(ImpulseResponse response) {
+        if (convolver == null) {
+            PartitionedConvolver created = new PartitionedConvolver();
+            created.setRealTime(realTime);
+            created.setImpulseResponse(response);
+            convolver = created;
+        } else {
+            convolver.setImpulseResponse(response);
+        }
+    }
+
+    /**
+     * False for an offline render: the convolution reverb then waits for its tail worker
+     * rather than playing a late tail partition as silence.
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+        if (convolver != null) {
+            convolver.setRealTime(realTime);
+        }
+    }
+
+    /** The convolution reverb's response, or null if none has been loaded. */
+    public ImpulseResponse getImpulseResponse() {
+        PartitionedConvolver conv = convolver;
+        return conv != null ? conv.getImpulseResponse() : null;
+    }
+
+    /**
+     * True while an enabled effect is still sounding after its input went quiet, so an
+     * offline render can run on past the last note until the tails die away.
+     */
+    public boolean isRinging() {
+        PartitionedConvolver conv = convolver;
+        return (delayOn && delay.isRinging()) || (reverbOn && reverb.isRinging())
+            || (convolutionOn && conv != null && conv.isRinging());
+    }
+
+    /**
+     * Stops the convolution reverb's worker thread, if one was started. Call only while
+     * no block is being processed; a later {@link #setImpulseResponse} starts a new one.
+     */
+    public synchronized void close() {
+        if (convolver != null) {
+            convolver.close();
+            convolver = null;
+        }
+    }
+}
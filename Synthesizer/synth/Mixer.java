@@ -3,22 +3,66 @@
 // ===============================
 package synth;
 
+import java.util.concurrent.locks.LockSupport;
 import javax.sound.sampled.*;
+import synth.dsp.BlockLevels;
+import synth.dsp.BufferOps;
 import synth.ui.ControlPanel;
 import synth.ui.SpectrumAnalyzer;
 
+/**
+ * Output stage. The audio thread is clocked by the sound card: it renders one period
+ * only once {@link SourceDataLine#available()} reports room for it, then hands it to a
+ * blocking {@link SourceDataLine#write}. Period size and period count set the
+ * end-to-end latency; override them with {@code -Dsynth.periodFrames} and
+ * {@code -Dsynth.periods} or the explicit {@link #start} overload.
+ */
 class Mixer {
     private static SourceDataLine line;
     public static final int SAMPLE_RATE = 44100;
     private static volatile boolean running = false;
-    private static final int BUFFER_SIZE = 1024;
-    private static final int NUM_BUFFERS = 2;
-    private static final long BUFFER_DURATION_NS = (long)((BUFFER_SIZE * 1_000_000_000.0) / SAMPLE_RATE);
-    private static final long MAX_BUFFER_WRITE_NS = BUFFER_DURATION_NS * 2;
-    private static SpectrumAnalyzer spectrumAnalyzer;
+    private static final int DEFAULT_PERIOD_FRAMES = 512;
+    private static final int DEFAULT_PERIODS = 3;
+    private static final int MIN_PERIOD_FRAMES = 32;
+    private static final int BYTES_PER_FRAME = 2; // 16-bit mono
+    private static final int TAP_FRAMES = 8192;
+    private static int periodFrames = DEFAULT_PERIOD_FRAMES;
+
+    // Output stage: voices mix into a floating-point bus, converted to PCM once here
+    private static final double[] mixBus = new double[Synth.BUFFER_SIZE];
+    private static final byte[] pcmBuffer = new byte[Synth.BUFFER_SIZE * 2];
+    private static final byte[] SILENCE = new byte[Synth.BUFFER_SIZE * 2];
+
+    // Output as played, for analysis consumers; the audio thread only ever copies into it
+    private static final AudioTap outputTap = new AudioTap(TAP_FRAMES);
+    // Peak/RMS/clips measured during conversion, published for the meters
+    private static final BlockLevels blockLevels = new BlockLevels();
+    private static final OutputLevels outputLevels = new OutputLevels();
+
+    // Latency actually achieved: frames queued in the device when each period lands
+    private static volatile double achievedLatencyMs;
+    private static EngineMetrics metrics;
 
     public static void start(VoiceBank voiceBank, ControlPanel controls, SpectrumAnalyzer spectrum) throws LineUnavailableException {
-        spectrumAnalyzer = spectrum;
+        start(voiceBank, controls, spectrum,
+              Integer.getInteger("synth.periodFrames", DEFAULT_PERIOD_FRAMES),
+              Integer.getInteger("synth.periods", DEFAULT_PERIODS));
+    }
+
+    /**
+     * Opens the line with a buffer of {@code periods} periods of {@code framesPerPeriod}
+     * frames and starts the audio thread.
+     */
+    public static void start(VoiceBank voiceBank, ControlPanel controls, SpectrumAnalyzer spectrum,
+                             int framesPerPeriod, int periods) throws LineUnavailableException {
+        if (spectrum != null) {
+            spectrum.attach(outputTap);
+        }
+        metrics = new EngineMetrics(voiceBank, SAMPLE_RATE);
+        metrics.register();
+        periodFrames = Math.max(MIN_PERIOD_FRAMES, Math.min(Synth.BUFFER_SIZE, framesPerPeriod));
+        periods = Math.max(2, periods);
+
         AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 
@@ -33,47 +77,63 @@ class Mixer {
         System.out.println("Frame size: " + format.getFrameSize());
         System.out.println("Frame rate: " + format.getFrameRate());
         System.out.println("Big endian: " + format.isBigEndian());
+        System.out.println("Buffer kernels: " + BufferOps.get().getName());
 
         line = (SourceDataLine) AudioSystem.getLine(info);
-        line.open(format, BUFFER_SIZE * NUM_BUFFERS);
+        line.open(format, periodFrames * periods * BYTES_PER_FRAME);
+        // The device may round the buffer; everything below follows what it actually gave us
+        int bufferBytes = line.getBufferSize();
+        int periodBytes = Math.min(periodFrames * BYTES_PER_FRAME, bufferBytes) & ~1;
+        periodFrames = periodBytes / BYTES_PER_FRAME;
+        System.out.printf("Period: %d frames x %d, device buffer %d frames (%.1f ms requested)%n",
+            periodFrames, periods, bufferBytes / BYTES_PER_FRAME, framesToMs(periodFrames * periods));
+
+        // Prime the device with silence so the first rendered period doesn't underrun
+        line.write(SILENCE, 0, Math.min(bufferBytes - periodBytes, SILENCE.length) & ~1);
         line.start();
 
         running = true;
 
         Thread audioThread = new Thread(() -> {
-            long nextBufferTime = System.nanoTime();
-            
+            long nanosPerByte = (long) (1_000_000_000.0 / (SAMPLE_RATE * BYTES_PER_FRAME));
+            long periodCount = 0;
+            double latencySum = 0.0;
+
             while (running) {
                 try {
-                    long currentTime = System.nanoTime();
-                    long timeToNextBuffer = nextBufferTime - currentTime;
-                    
-                    if (timeToNextBuffer < MAX_BUFFER_WRITE_NS) {
-                        byte[] buffer = voiceBank.mixVoices();
-                        if (buffer != null) {
-                            // Update spectrum analyzer with the exact same buffer that's being played
-                            if (spectrumAnalyzer != null) {
-                                spectrumAnalyzer.updateSpectrum(buffer);
-                            }
-                            line.write(buffer, 0, buffer.length);
-                        } else {
-                            // Write silence if no audio
-                            byte[] silence = new byte[BUFFER_SIZE * 2];
-                            // Update spectrum analyzer with silence
-                            if (spectrumAnalyzer != null) {
-                                spectrumAnalyzer.updateSpectrum(silence);
-                            }
-                            line.write(silence, 0, silence.length);
-                        }
-                        nextBufferTime += BUFFER_DURATION_NS;
+                    // Render as late as possible: wait until the device has drained a full
+                    // period, sleeping only for the time it needs to play the shortfall
+                    int available = line.available();
+                    if (available < periodBytes) {
+                        LockSupport.parkNanos((periodBytes - available) * nanosPerByte);
+                        continue;
                     }
+                    if (available >= bufferBytes) {
+                        metrics.recordUnderrun();
+                    }
+
+                    long renderStart = System.nanoTime();
+                    voiceBank.mixVoices(mixBus, periodFrames);
+                    byte[] buffer = toPcm16(mixBus, pcmBuffer, periodFrames, blockLevels);
+                    // Publish exactly what is being played; analysis happens on other threads
+                    outputTap.write(mixBus, periodFrames);
+                    outputLevels.publish(blockLevels);
+                    metrics.recordBlock(renderStart, System.nanoTime(), periodFrames, voiceBank.getActiveVoiceCount());
 
-                    // Sleep until next buffer time
-                    long sleepTime = (nextBufferTime - System.nanoTime()) / 1_000_000;
-                    if (sleepTime > 0) {
-                        Thread.sleep(sleepTime);
+                    // Frames still queued ahead of this period, plus the period itself
+                    int queuedFrames = (bufferBytes - line.available()) / BYTES_PER_FRAME + periodFrames;
+                    line.write(buffer, 0, periodBytes); // blocks on the device clock if it has to
+
+                    latencySum += framesToMs(queuedFrames);
+                    if (++periodCount % 64 == 0) {
+                        achievedLatencyMs = latencySum / 64;
+                        latencySum = 0.0;
+                        if (periodCount == 64) {
+                            System.out.printf("Achieved output latency: %.1f ms%n", achievedLatencyMs);
+                        }
                     }
                 } catch (Exception e) {
+                    metrics.recordError(e);
                     System.err.println("Error in audio thread: " + e.getMessage());
                     e.printStackTrace();
                 }
@@ -85,14 +145,55 @@ class Mixer {
         audioThread.start();
     }
 
+    /** The mix bus as sent to the device, for meters, analyzers and recorders. */
+    public static AudioTap getOutputTap() {
+        return outputTap;
+    }
+
+    /** Levels of the output as played, for meters; see {@link GainMeter#attach}. */
+    public static OutputLevels getOutputLevels() {
+        return outputLevels;
+    }
+
+    /** Average output latency over the last 64 periods, in milliseconds. */
+    public static double getAchievedLatencyMs() {
+        return achievedLatencyMs;
+    }
+
+    /** Periods that found the device buffer already empty. */
+    public static long getUnderruns() {
+        return metrics != null ? metrics.getUnderruns() : 0;
+    }
+
+    /** Health counters of the running engine, also published over JMX; null before {@link #start}. */
+    public static EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static double framesToMs(int frames) {
+        return frames * 1000.0 / SAMPLE_RATE;
+    }
+
+    /**
+     * Converts {@code frames} bus samples to signed 16-bit little-endian PCM, clamping
+     * to full scale, and measures them into {@code levels} in the same pass. This is the
+     * only point where the mix is quantized.
+     */
+    static byte[] toPcm16(double[] bus, byte[] out, int frames, BlockLevels levels) {
+        BufferOps.get().toPcm16(bus, out, frames, levels);
+        return out;
+    }
+
     public static void stop() {
         System.out.println("Stopping audio output");
         running = false;
         if (line != null) {
-            byte[] silence = new byte[BUFFER_SIZE * 2];
-            line.write(silence, 0, silence.length);
+            line.write(SILENCE, 0, periodFrames * BYTES_PER_FRAME);
             line.drain();
             line.close();
         }
+        if (metrics != null) {
+            metrics.unregister();
+        }
     }
-}
\ No newline at end of file
+}
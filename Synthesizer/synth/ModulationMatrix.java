@@ -0,0 +1,343 @@
+package synth;
+
+import java.util.Arrays;
+
+import synth.ParameterStore.Param;
+import synth.dsp.EnvelopeGenerator;
+import synth.dsp.LFOEngine;
+
+/**
+ * Routes modulation sources to voice parameters at control rate.
+ *
+ * Sources are two free-running LFOs, a per-voice attack/decay modulation envelope,
+ * note velocity and key tracking; destinations are pitch, volume, filter cutoff,
+ * resonance and unison detune. The routes are the modulation panel's LFO row (LFO 1 to
+ * its target at its depth) plus {@link #SLOTS} free slots, read from the block's
+ * parameter snapshot.
+ *
+ * Modulation is evaluated every {@link #getControlRate()} samples on a grid aligned to
+ * the block start rather than per sample. The LFOs are the same for every voice, so
+ * {@link #beginBlock} computes their grid values once for the whole bank, one
+ * {@code Math.sin} per control point. Each voice then sums its routes at the grid
+ * points of the segment it renders and interpolates to audio rate: volume linearly,
+ * and cutoff as a multiplier that moves in a straight line in octaves, by one
+ * multiply per sample after two {@code Math.exp} per control period. Pitch, detune
+ * and resonance hold for each control period, and the oscillators carry their phase
+ * across the steps.
+ *
+ * The per-block state is written on the mixing thread before any voice renders and
+ * only read afterwards, so voices on {@link RenderPool} workers see the same values.
+ */
+public final class ModulationMatrix {
+    public enum Source { LFO1, LFO2, MOD_ENV, VELOCITY, KEY }
+
+    public enum Destination { PITCH, VOLUME, CUTOFF, RESONANCE, DETUNE }
+
+    public static final int DEFAULT_CONTROL_RATE = 32;
+    public static final int MIN_CONTROL_RATE = 8;
+    public static final int MAX_CONTROL_RATE = 256;
+    /** Routing slots besides the LFO row. */
+    public static final int SLOTS = 3;
+
+    // Effect of full amount and a full-scale source: pitch, cutoff and resonance in
+    // octaves, volume as a gain offset, detune in units of the detune knob's range
+    private static final double PITCH_OCTAVES = 1.0;
+    private static final double CUTOFF_OCTAVES = 4.0;
+    private static final double RESONANCE_OCTAVES = 2.0;
+    // Key tracking reads 1 this many octaves above middle C, so full amount on cutoff tracks 1:1
+    private static final double KEY_OCTAVES = CUTOFF_OCTAVES;
+    private static final double MIDDLE_C = 261.6255653005986;
+    private static final double LN2 = Math.log(2.0);
+    private static final int MAX_CHUNKS = Synth.BUFFER_SIZE / MIN_CONTROL_RATE + 2;
+
+    private static final Source[] SOURCES = Source.values();
+    private static final int DESTINATIONS = Destination.values().length;
+    private static final int PITCH = Destination.PITCH.ordinal();
+    private static final int VOLUME = Destination.VOLUME.ordinal();
+    private static final int CUTOFF = Destination.CUTOFF.ordinal();
+    private static final int RESONANCE = Destination.RESONANCE.ordinal();
+    private static final int DETUNE = Destination.DETUNE.ordinal();
+    private static final Param[][] SLOT_PARAMS = {
+        {Param.MOD1_SOURCE, Param.MOD1_DEST, Param.MOD1_AMOUNT},
+        {Param.MOD2_SOURCE, Param.MOD2_DEST, Param.MOD2_AMOUNT},
+        {Param.MOD3_SOURCE, Param.MOD3_DEST, Param.MOD3_AMOUNT},
+    };
+
+    private final int controlRate;
+    private final LFOEngine lfo1 = new LFOEngine();
+    private final LFOEngine lfo2 = new LFOEngine();
+
+    // LFO values at block offsets 0, R, 2R, ... and at the block end
+    private final double[] lfo1Points;
+    private final double[] lfo2Points;
+    private int blockFrames;
+
+    // This block's routes, amounts already scaled to destination units
+    private final Source[] routeSource = new Source[SLOTS + 1];
+    private final int[] routeDest = new int[SLOTS + 1];
+    private final double[] routeAmount = new double[SLOTS + 1];
+    private int routeCount;
+    private final boolean[] routed = new boolean[DESTINATIONS];
+    private boolean lfo1Routed;
+    private boolean lfo2Routed;
+    private int modEnvAttack = EnvelopeGenerator.MIN_SEGMENT;
+    private int modEnvDecay = EnvelopeGenerator.MIN_SEGMENT;
+
+    public ModulationMatrix() {
+        this(DEFAULT_CONTROL_RATE);
+    }
+
+    /**
+     * @param controlRate samples per control period, clamped to
+     *                    [{@value #MIN_CONTROL_RATE}, {@value #MAX_CONTROL_RATE}]
+     */
+    public ModulationMatrix(int controlRate) {
+        this.controlRate = Math.max(MIN_CONTROL_RATE, Math.min(MAX_CONTROL_RATE, controlRate));
+        int points = Synth.BUFFER_SIZE / this.controlRate + 2;
+        this.lfo1Points = new double[points];
+        this.lfo2Points = new double[points];
+    }
+
+    public int getControlRate() {
+        return controlRate;
+    }
+
+    /**
+     * Reads this block's routes from {@code params} and advances the LFOs across the
+     * block's control grid. Call on the mixing thread before any voice renders.
+     */
+    public void beginBlock(ParameterStore.Snapshot params, int frames) {
+        blockFrames = frames;
+        routeCount = 0;
+        Arrays.fill(routed, false);
+        lfo1Routed = false;
+        lfo2Routed = false;
+        if (params.getBoolean(Param.LFO_ENABLED)) {
+            addRoute(Source.LFO1, params.getInt(Param.LFO_TARGET), params.get(Param.LFO_DEPTH) / 100.0);
+        }
+        for (Param[] slot : SLOT_PARAMS) {
+            Source source = SOURCES[Math.max(0, Math.min(SOURCES.length - 1, params.getInt(slot[0])))];
+            addRoute(source, params.getInt(slot[1]), params.get(slot[2]) / 100.0);
+        }
+        // Same 10 ms knob steps as the amplitude envelope
+        modEnvAttack = (int) (params.get(Param.MOD_ENV_ATTACK) * 10 * Synth.SAMPLE_RATE / 1000.0);
+        modEnvDecay = (int) (params.get(Param.MOD_ENV_DECAY) * 10 * Synth.SAMPLE_RATE / 1000.0);
+
+        // The LFOs run free whether or not anything listens, so routing one never restarts it
+        advance(lfo1, lfo1Points, lfo1Routed, params.get(Param.LFO_RATE), frames);
+        advance(lfo2, lfo2Points, lfo2Routed, params.get(Param.LFO2_RATE), frames);
+    }
+
+    /** Fills {@code points} across the block's control grid, or just moves the phase if unrouted. */
+    private void advance(LFOEngine lfo, double[] points, boolean routed, double rateHz, int frames) {
+        if (!routed) {
+            lfo.advance(rateHz, frames);
+            return;
+        }
+        points[0] = lfo.getValue();
+        int last = (frames + controlRate - 1) / controlRate;
+        for (int j = 1; j <= last; j++) {
+            int step = Math.min(j * controlRate, frames) - (j - 1) * controlRate;
+            points[j] = lfo.advance(rateHz, step);
+        }
+    }
+
+    private void addRoute(Source source, int dest, double amount) {
+        if (amount == 0.0) {
+            return;
+        }
+        dest = Math.max(0, Math.min(DESTINATIONS - 1, dest));
+        if (dest == PITCH) {
+            amount *= PITCH_OCTAVES;
+        } else if (dest == CUTOFF) {
+            amount *= CUTOFF_OCTAVES;
+        } else if (dest == RESONANCE) {
+            amount *= RESONANCE_OCTAVES;
+        }
+        routeSource[routeCount] = source;
+        routeDest[routeCount] = dest;
+        routeAmount[routeCount] = amount;
+        routeCount++;
+        routed[dest] = true;
+        lfo1Routed |= source == Source.LFO1;
+        lfo2Routed |= source == Source.LFO2;
+    }
+
+    /** True if any route is active this block; voices skip modulation otherwise. */
+    public boolean isActive() {
+        return routeCount > 0;
+    }
+
+    /** True if some route this block targets {@code destination}. */
+    public boolean routes(Destination destination) {
+        return routed[destination.ordinal()];
+    }
+
+    /**
+     * Computes {@code state}'s modulation for the {@code frames} samples starting at
+     * block offset {@code offset}: per-sample volume gain and cutoff multiplier, and per
+     * control period pitch ratio and detune offset, each only if routed, plus the
+     * resonance multiplier at the end. Results are indexed from 0 for the segment's
+     * first sample.
+     */
+    void evaluate(VoiceState state, int offset, int frames) {
+        state.trigger(this);
+        double[] from = state.from;
+        double[] to = state.to;
+        sum(state, offset, from);
+
+        double[] gainOut = state.gain;
+        double[] cutoffOut = state.cutoff;
+        boolean volume = routed[VOLUME];
+        boolean cutoff = routed[CUTOFF];
+        boolean pitch = routed[PITCH];
+        int pos = 0;
+        int chunk = 0;
+        while (pos < frames) {
+            int t = offset + pos;
+            int len = Math.min(frames - pos, (t / controlRate + 1) * controlRate - t);
+            state.envelope.advance(len);
+            sum(state, t + len, to);
+
+            if (volume) {
+                ramp(gainOut, pos, len, 1.0 + from[VOLUME], 1.0 + to[VOLUME], 0.0);
+            }
+            if (cutoff) {
+                octaveRamp(cutoffOut, pos, len, from[CUTOFF], to[CUTOFF]);
+            }
+            state.chunkEnd[chunk] = pos + len;
+            state.pitch[chunk] = pitch ? Math.exp(LN2 * 0.5 * (from[PITCH] + to[PITCH])) : 1.0;
+            state.detune[chunk] = 0.5 * (from[DETUNE] + to[DETUNE]);
+            chunk++;
+
+            double[] swap = from;
+            from = to;
+            to = swap;
+            pos += len;
+        }
+        state.chunks = chunk;
+        state.resonance = routed[RESONANCE] ? Math.exp(LN2 * from[RESONANCE]) : 1.0;
+    }
+
+    /** Linear ramp from {@code start} toward {@code end} over {@code len} samples, floored at {@code min}. */
+    private static void ramp(double[] out, int from, int len, double start, double end, double min) {
+        double step = (end - start) / len;
+        double value = start;
+        for (int i = from; i < from + len; i++) {
+            out[i] = value > min ? value : min;
+            value += step;
+        }
+    }
+
+    /** {@code 2^octaves} for octaves moving linearly from {@code start} toward {@code end}, by multiplication. */
+    private static void octaveRamp(double[] out, int from, int len, double start, double end) {
+        double value = Math.exp(LN2 * start);
+        double step = Math.exp(LN2 * (end - start) / len);
+        for (int i = from; i < from + len; i++) {
+            out[i] = value;
+            value *= step;
+        }
+    }
+
+    /** Keeps {@code state}'s sources running through a block with no active routes. */
+    void skip(VoiceState state, int frames) {
+        state.trigger(this);
+        state.envelope.advance(frames);
+    }
+
+    /** Sums every route at block offset {@code t} into {@code out}, by destination. */
+    private void sum(VoiceState state, int t, double[] out) {
+        for (int d = 0; d < DESTINATIONS; d++) {
+            out[d] = 0.0;
+        }
+        for (int r = 0; r < routeCount; r++) {
+            double value;
+            switch (routeSource[r]) {
+                case LFO1:
+                    value = lfoAt(lfo1Points, t);
+                    break;
+                case LFO2:
+                    value = lfoAt(lfo2Points, t);
+                    break;
+                case MOD_ENV:
+                    value = state.envelope.getLevel();
+                    break;
+                case VELOCITY:
+                    value = state.velocity;
+                    break;
+                default:
+                    value = state.key;
+                    break;
+            }
+            out[routeDest[r]] += routeAmount[r] * value;
+        }
+    }
+
+    /** LFO value at block offset {@code t}, interpolated between grid points. */
+    private double lfoAt(double[] points, int t) {
+        if (t >= blockFrames) {
+            return points[(blockFrames + controlRate - 1) / controlRate];
+        }
+        int j = t / controlRate;
+        int base = j * controlRate;
+        if (t == base) {
+            return points[j];
+        }
+        int span = Math.min(base + controlRate, blockFrames) - base;
+        return points[j] + (points[j + 1] - points[j]) * (t - base) / span;
+    }
+
+    /** One voice's modulation sources, and the results of its last {@link #evaluate}. */
+    static final class VoiceState {
+        // Linear attack to 1, exponential decay to 0 and held there until note-off
+        final EnvelopeGenerator envelope = new EnvelopeGenerator(
+            EnvelopeGenerator.Curve.LINEAR, EnvelopeGenerator.Curve.EXPONENTIAL, EnvelopeGenerator.Curve.EXPONENTIAL);
+        private double velocity = 1.0;
+        private double key;
+        private boolean triggered;
+        private boolean releasePending;
+
+        final double[] gain = new double[Synth.BUFFER_SIZE];   // volume multiplier per sample
+        final double[] cutoff = new double[Synth.BUFFER_SIZE]; // cutoff multiplier per sample
+        final int[] chunkEnd = new int[MAX_CHUNKS];            // end of each control period
+        final double[] pitch = new double[MAX_CHUNKS];         // frequency ratio per control period
+        final double[] detune = new double[MAX_CHUNKS];        // detune offset per control period
+        int chunks;
+        double resonance = 1.0;                                // Q multiplier
+
+        private final double[] from = new double[DESTINATIONS];
+        private final double[] to = new double[DESTINATIONS];
+
+        /**
+         * Arms the sources for a new note. The envelope starts at the voice's next
+         * render, which is when the block's envelope times are known.
+         */
+        void noteOn(double freq, double velocity) {
+            this.velocity = velocity;
+            this.key = Math.log(freq / MIDDLE_C) / LN2 / KEY_OCTAVES;
+            triggered = true;
+            releasePending = false;
+        }
+
+        void noteOff() {
+            if (triggered) {
+                releasePending = true;
+            } else {
+                envelope.noteOff();
+            }
+        }
+
+        private void trigger(ModulationMatrix matrix) {
+            if (!triggered) {
+                return;
+            }
+            envelope.setTimes(matrix.modEnvAttack, matrix.modEnvDecay, -1, matrix.modEnvDecay, 0.0);
+            envelope.noteOn();
+            if (releasePending) {
+                envelope.noteOff();
+            }
+            triggered = false;
+            releasePending = false;
+        }
+    }
+}
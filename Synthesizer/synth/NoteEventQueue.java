@@ -0,0 +1,104 @@
+package synth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of note events, stored as parallel
+ * primitive arrays so neither side allocates. Each event carries the sample frame it
+ * should take effect on; the audio thread drains due events at block start and splits
+ * rendering at their exact offsets.
+ *
+ * Exactly one thread may {@link #offer} at a time (the EDT, or an offline renderer),
+ * and exactly one may consume (the audio thread). A full queue drops the event and
+ * counts it rather than blocking the producer.
+ */
+public final class NoteEventQueue {
+    public static final int NOTE_ON = 1;
+    public static final int NOTE_OFF = 2;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] frames;
+    private final int[] types;
+    private final double[] freqs;
+    private final double[] velocities;
+
+    private final AtomicLong head = new AtomicLong(); // next slot to read, owned by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, owned by the producer
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity maximum queued events, rounded up to a power of two
+     */
+    public NoteEventQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.frames = new long[size];
+        this.types = new int[size];
+        this.freqs = new double[size];
+        this.velocities = new double[size];
+    }
+
+    /** Producer side: enqueues an event at full velocity. */
+    public boolean offer(long frame, int type, double freq) {
+        return offer(frame, type, freq, 1.0);
+    }
+
+    /**
+     * Producer side: enqueues an event for sample frame {@code frame}.
+     *
+     * @param velocity note-on velocity, 0 to 1
+     * @return false if the queue was full and the event was dropped
+     */
+    public boolean offer(long frame, int type, double freq, double velocity) {
+        long t = tail.get();
+        if (t - head.get() >= capacity) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int i = (int) t & mask;
+        frames[i] = frame;
+        types[i] = type;
+        freqs[i] = freq;
+        velocities[i] = velocity;
+        tail.lazySet(t + 1); // release: slot contents become visible with the new tail
+        return true;
+    }
+
+    /** Consumer side: true if no event is waiting. */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /** Consumer side: frame of the oldest event; only valid when not {@link #isEmpty}. */
+    public long peekFrame() {
+        return frames[(int) head.get() & mask];
+    }
+
+    public int peekType() {
+        return types[(int) head.get() & mask];
+    }
+
+    public double peekFreq() {
+        return freqs[(int) head.get() & mask];
+    }
+
+    public double peekVelocity() {
+        return velocities[(int) head.get() & mask];
+    }
+
+    /** Consumer side: discards the oldest event, freeing its slot for the producer. */
+    public void poll() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** Events rejected because the queue was full. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
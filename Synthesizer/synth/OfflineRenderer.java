@@ -0,0 +1,261 @@
+package synth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import synth.dsp.BlockLevels;
+import synth.dsp.BufferOps;
+import synth.dsp.ImpulseResponse;
+
+/**
+ * Headless bounce of a Standard MIDI File to a 16-bit mono WAV, as fast as the CPU
+ * allows. Note events are converted to sample frames through the file's tempo map and
+ * queued on a {@link VoiceBank} ahead of each block, so they land exactly where
+ * {@link Mixer} would play them; no audio device or AWT is touched.
+ *
+ * Run with: java synth.OfflineRenderer song.mid song.wav [maxTailSeconds]
+ * {@code -Dsynth.renderThreads=N} renders voices in parallel as in the live synth.
+ * {@code -Dsynth.impulseResponse=room.wav} loads an impulse response into the
+ * convolution reverb.
+ */
+public class OfflineRenderer {
+    private static final int BLOCK_FRAMES = Synth.BUFFER_SIZE;
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final double DEFAULT_TAIL_SECONDS = 5.0;
+
+    private final VoiceBank voiceBank;
+    private final double[] bus = new double[Synth.BUFFER_SIZE];
+    private final byte[] pcm = new byte[Synth.BUFFER_SIZE * 2];
+    private final BlockLevels levels = new BlockLevels();
+
+    private long bankClock; // the bank's sample clock at the start of the next block
+    private long framesWritten;
+    private long notesPlayed;
+    private double peak;
+
+    /**
+     * @param voiceBank a newly created bank nothing else will drive; the renderer owns its clock
+     */
+    public OfflineRenderer(VoiceBank voiceBank) {
+        this.voiceBank = voiceBank;
+        voiceBank.getEffects().setRealTime(false); // nothing is waiting on the output, so never drop a tail partition
+    }
+
+    /**
+     * Renders {@code sequence} to {@code wav}. After the last event the render runs on
+     * until every voice has finished its release, or for at most {@code maxTailSeconds}.
+     *
+     * @return frames written
+     */
+    public long render(Sequence sequence, Path wav, double maxTailSeconds) throws IOException {
+        List<NoteEvent> events = collectNotes(sequence);
+        framesWritten = 0;
+        notesPlayed = 0;
+        peak = 0.0;
+
+        long start = bankClock;
+        long lastFrame = events.isEmpty() ? -1 : events.get(events.size() - 1).frame;
+        long endFrame = lastFrame + 1 + (long) (Math.max(0.0, maxTailSeconds) * Synth.SAMPLE_RATE);
+
+        try (FileChannel out = FileChannel.open(wav, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(wavHeader(0)); // sizes patched once the length is known
+
+            int next = 0;
+            long clock = 0;
+            while (clock < endFrame) {
+                if (next == events.size() && clock > lastFrame && voiceBank.getActiveVoiceCount() == 0
+                        && !voiceBank.getEffects().isRinging()) {
+                    break; // every release and effect tail has finished
+                }
+                long blockEnd = Math.min(clock + BLOCK_FRAMES, endFrame);
+
+                // Queue everything due in this block; if the queue fills, end the block
+                // early at the first event that didn't fit and pick it up next time round
+                while (next < events.size() && events.get(next).frame < blockEnd) {
+                    NoteEvent event = events.get(next);
+                    if (voiceBank.getQueuedEventCount() >= VoiceBank.EVENT_QUEUE_CAPACITY) {
+                        blockEnd = Math.max(clock + 1, event.frame);
+                        break;
+                    }
+                    if (event.on) {
+                        voiceBank.noteOn(midiToFreq(event.note), event.velocity / 127.0, start + event.frame);
+                        notesPlayed++;
+                    } else {
+                        voiceBank.noteOff(midiToFreq(event.note), start + event.frame);
+                    }
+                    next++;
+                }
+
+                int frames = (int) (blockEnd - clock);
+                voiceBank.mixVoices(bus, frames);
+                BufferOps.get().toPcm16(bus, pcm, frames, levels);
+                peak = Math.max(peak, levels.getPeak());
+                out.write(ByteBuffer.wrap(pcm, 0, frames * 2));
+                clock = blockEnd;
+                bankClock += frames;
+                framesWritten += frames;
+            }
+
+            out.write(wavHeader(framesWritten * 2), 0);
+        }
+        return framesWritten;
+    }
+
+    /** Note-ons rendered by the last {@link #render} call. */
+    public long getNotesPlayed() {
+        return notesPlayed;
+    }
+
+    /** Highest absolute bus level of the last render; above 1.0 means the output clipped. */
+    public double getPeak() {
+        return peak;
+    }
+
+    static double midiToFreq(int note) {
+        return 440.0 * Math.pow(2.0, (note - 69) / 12.0);
+    }
+
+    /** A note-on or note-off, placed on the sample clock. */
+    private static final class NoteEvent {
+        final long tick;
+        final boolean on;
+        final int note;
+        final int velocity;
+        long frame;
+
+        NoteEvent(long tick, boolean on, int note, int velocity) {
+            this.tick = tick;
+            this.on = on;
+            this.note = note;
+            this.velocity = velocity;
+        }
+    }
+
+    /**
+     * Flattens every track into one list of note events in time order, with note-offs
+     * ahead of note-ons on the same tick so a repeated note retriggers, then converts
+     * ticks to frames through the tempo map.
+     */
+    private static List<NoteEvent> collectNotes(Sequence sequence) {
+        List<NoteEvent> notes = new ArrayList<>();
+        List<long[]> tempos = new ArrayList<>(); // {tick, microseconds per quarter note}
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (event.getMessage() instanceof ShortMessage) {
+                    ShortMessage msg = (ShortMessage) event.getMessage();
+                    int command = msg.getCommand();
+                    if (command == ShortMessage.NOTE_ON && msg.getData2() > 0) {
+                        notes.add(new NoteEvent(event.getTick(), true, msg.getData1(), msg.getData2()));
+                    } else if (command == ShortMessage.NOTE_OFF || command == ShortMessage.NOTE_ON) {
+                        notes.add(new NoteEvent(event.getTick(), false, msg.getData1(), 0));
+                    }
+                } else if (event.getMessage() instanceof MetaMessage) {
+                    MetaMessage meta = (MetaMessage) event.getMessage();
+                    byte[] data = meta.getData();
+                    if (meta.getType() == 0x51 && data.length == 3) {
+                        long usPerQuarter = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+                        tempos.add(new long[] {event.getTick(), usPerQuarter});
+                    }
+                }
+            }
+        }
+        notes.sort(Comparator.comparingLong((NoteEvent e) -> e.tick).thenComparing(e -> e.on));
+        tempos.sort(Comparator.comparingLong(t -> t[0]));
+
+        float division = sequence.getDivisionType();
+        int resolution = sequence.getResolution();
+        if (division != Sequence.PPQ) {
+            // SMPTE timing: a fixed number of ticks per second, no tempo map
+            double ticksPerSecond = division * resolution;
+            for (NoteEvent note : notes) {
+                note.frame = Math.round(note.tick / ticksPerSecond * Synth.SAMPLE_RATE);
+            }
+            return notes;
+        }
+
+        // Walk the tempo map alongside the notes, accumulating time at each change
+        double usPerTick = 500_000.0 / resolution; // 120 bpm until told otherwise
+        long segmentTick = 0;
+        double segmentSeconds = 0.0;
+        int t = 0;
+        for (NoteEvent note : notes) {
+            while (t < tempos.size() && tempos.get(t)[0] <= note.tick) {
+                segmentSeconds += (tempos.get(t)[0] - segmentTick) * usPerTick / 1e6;
+                segmentTick = tempos.get(t)[0];
+                usPerTick = tempos.get(t)[1] / (double) resolution;
+                t++;
+            }
+            double seconds = segmentSeconds + (note.tick - segmentTick) * usPerTick / 1e6;
+            note.frame = Math.round(seconds * Synth.SAMPLE_RATE);
+        }
+        return notes;
+    }
+
+    /** RIFF/WAVE header for 16-bit mono PCM at {@link Synth#SAMPLE_RATE}. */
+    private static ByteBuffer wavHeader(long dataBytes) {
+        int sampleRate = (int) Synth.SAMPLE_RATE;
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'}).putInt((int) (36 + dataBytes));
+        header.put(new byte[] {'W', 'A', 'V', 'E'});
+        header.put(new byte[] {'f', 'm', 't', ' '}).putInt(16);
+        header.putShort((short) 1);          // PCM
+        header.putShort((short) 1);          // mono
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * 2);       // byte rate
+        header.putShort((short) 2);          // block align
+        header.putShort((short) 16);         // bits per sample
+        header.put(new byte[] {'d', 'a', 't', 'a'}).putInt((int) dataBytes);
+        header.flip();
+        return header;
+    }
+
+    public static void main(String[] args) throws IOException, InvalidMidiDataException {
+        if (args.length < 2) {
+            System.err.println("Usage: java synth.OfflineRenderer <in.mid> <out.wav> [maxTailSeconds]");
+            System.exit(2);
+        }
+        double tail = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TAIL_SECONDS;
+        Sequence sequence = MidiSystem.getSequence(new File(args[0]));
+
+        // Default patch, the same one the live synth starts with
+        VoiceBank voiceBank = new VoiceBank(new ParameterStore());
+        voiceBank.setRenderThreads(Integer.getInteger("synth.renderThreads", 1));
+        String impulse = System.getProperty("synth.impulseResponse");
+        if (impulse != null) {
+            voiceBank.getEffects().setImpulseResponse(ImpulseResponse.load(Paths.get(impulse)));
+        }
+        OfflineRenderer renderer = new OfflineRenderer(voiceBank);
+
+        long startNanos = System.nanoTime();
+        long frames = renderer.render(sequence, Paths.get(args[1]), tail);
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+        double audioSeconds = frames / Synth.SAMPLE_RATE;
+
+        System.out.printf("Rendered %.1f s of audio (%d notes) in %.2f s: %.1fx real time%n",
+            audioSeconds, renderer.getNotesPlayed(), wallSeconds, audioSeconds / wallSeconds);
+        System.out.printf("Peak %.1f dBFS%s, buffer kernels: %s%n", 20 * Math.log10(Math.max(renderer.getPeak(), 1e-9)),
+            renderer.getPeak() > 1.0 ? " (clipped)" : "", BufferOps.get().getName());
+        if (voiceBank.getDroppedEventCount() > 0) {
+            System.err.println("Warning: " + voiceBank.getDroppedEventCount() + " note events dropped");
+        }
+        voiceBank.close();
+    }
+}
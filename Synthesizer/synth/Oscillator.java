@@ -1,17 +1,74 @@
 package synth;
 
+import synth.dsp.BufferOps;
+import synth.dsp.PolyBlep;
+import synth.dsp.Wavetable;
+
 public class Oscillator {
-    private final Synth.Waveform waveform;
+    /**
+     * How samples are generated. DIRECT evaluates {@code Math.sin}/{@code Math.tanh}
+     * per sample; WAVETABLE reads precomputed interpolated tables and matches DIRECT
+     * within the bound documented on {@link Wavetable}. BANDLIMITED generates SAW, SQUARE
+     * and TRIANGLE with {@link PolyBlep} corrections instead of the naive shapes, and
+     * drops the unison path's tanh softening since there is no aliasing left to hide.
+     */
+    public enum Mode { DIRECT, WAVETABLE, BANDLIMITED }
+
+    /** Most detuned copies the unison path renders. */
+    public static final int MAX_UNISON = 16;
+
+    private Synth.Waveform waveform;
+    private Mode mode;
     private double frequency;
     private double phase;
+    // Per-voice phases of the unison stack, carried across calls so frequency can change between them
+    private final double[] unisonPhases = new double[MAX_UNISON];
+    // Detune ratios of the unison stack for the spread they were last computed for
+    private final double[] detuneRatios = new double[MAX_UNISON];
+    private int ratioUnison = -1;
+    private double ratioDetune = -1.0;
     private static final double TWO_PI = 2.0 * Math.PI;
     private static final double SAMPLE_RATE = Synth.SAMPLE_RATE;
     private static final double NYQUIST = SAMPLE_RATE / 2.0;
+    private static final BufferOps OPS = BufferOps.get();
 
     public Oscillator(double frequency, Synth.Waveform waveform) {
+        this(frequency, waveform, Mode.BANDLIMITED);
+    }
+
+    public Oscillator(double frequency, Synth.Waveform waveform, Mode mode) {
+        this.frequency = frequency;
+        this.waveform = waveform;
+        this.mode = mode;
+        resetPhases();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /** Restarts the oscillator on a new note, as when a pooled voice is reused. */
+    public void reset(double frequency, Synth.Waveform waveform) {
         this.frequency = frequency;
         this.waveform = waveform;
-        this.phase = 0.0;
+        resetPhases();
+    }
+
+    private void resetPhases() {
+        phase = 0.0;
+        for (int voice = 0; voice < MAX_UNISON; voice++) {
+            // Golden-ratio start offsets break up beating between the unison copies
+            unisonPhases[voice] = (voice * 0.618033988749 * TWO_PI) % TWO_PI;
+        }
+    }
+
+    /** Changes the waveform without restarting the phase, for a voice taken over mid-note. */
+    public void setWaveform(Synth.Waveform waveform) {
+        this.waveform = waveform;
     }
 
     public double getFrequency() {
@@ -22,9 +79,23 @@ public class Oscillator {
         this.frequency = frequency;
     }
 
-    public double[] nextBuffer(double modFreq, float volume, long sampleIndex, int unison, double detuneAmount) {
+    public double[] nextBuffer(double modFreq, float volume, int unison, double detuneAmount) {
         double[] buffer = new double[Synth.BUFFER_SIZE];
-        
+        render(buffer, 0, buffer.length, modFreq, volume, unison, detuneAmount);
+        return buffer;
+    }
+
+    /**
+     * Renders {@code length} samples into {@code out} starting at {@code offset}.
+     * Writes straight into the caller's buffer so the audio thread never allocates.
+     * Every voice of the unison stack keeps its phase from call to call, so
+     * {@code modFreq} can change between calls, e.g. every control period under pitch
+     * modulation, without a discontinuity.
+     */
+    public void render(double[] out, int offset, int length, double modFreq, float volume,
+                       int unison, double detuneAmount) {
+        int end = offset + length;
+
         // Ensure frequency is below Nyquist
         modFreq = Math.min(modFreq, NYQUIST);
         
@@ -33,7 +104,25 @@ public class Oscillator {
             double phaseIncrement = (modFreq * TWO_PI) / SAMPLE_RATE;
             double currentPhase = phase;
             
-            for (int i = 0; i < buffer.length; i++) {
+            if (mode == Mode.BANDLIMITED && waveform != Synth.Waveform.SINE) {
+                phase = renderBandLimited(out, offset, end, currentPhase, phaseIncrement, volume, false);
+                return;
+            }
+
+            if (mode != Mode.DIRECT) {
+                Wavetable table = Wavetable.plain(waveform);
+                for (int i = offset; i < end; i++) {
+                    out[i] = table.lookup(currentPhase) * volume;
+                    currentPhase += phaseIncrement;
+                    if (currentPhase >= TWO_PI) {
+                        currentPhase -= TWO_PI;
+                    }
+                }
+                phase = currentPhase;
+                return;
+            }
+
+            for (int i = offset; i < end; i++) {
                 double value;
                 switch (waveform) {
                     case SINE:
@@ -52,7 +141,7 @@ public class Oscillator {
                         value = Math.sin(currentPhase);
                 }
                 
-                buffer[i] = value * volume;
+                out[i] = value * volume;
                 currentPhase += phaseIncrement;
                 if (currentPhase >= TWO_PI) {
                     currentPhase -= TWO_PI;
@@ -61,35 +150,60 @@ public class Oscillator {
             
             phase = currentPhase;
         } else {
-            // Serum-like unison - generate multiple detuned voices
-            double[] sum = new double[Synth.BUFFER_SIZE];
+            // Serum-like unison - generate multiple detuned voices, summed in place
+            for (int i = offset; i < end; i++) {
+                out[i] = 0.0;
+            }
             double unisonDetune = detuneAmount * 50; // Reduced to 0-50 cents range for smoother sound
+            unison = Math.min(unison, MAX_UNISON);
+            if (unison != ratioUnison || unisonDetune != ratioDetune) {
+                // Voices sit evenly in cents from -spread/2 to +spread/2, so the ratios are a
+                // geometric series; recomputed only when the spread changes
+                double ratio = Math.pow(2.0, -0.5 * unisonDetune / 1200.0);
+                double step = Math.pow(2.0, unisonDetune / 1200.0 / Math.max(1, unison - 1));
+                for (int voice = 0; voice < unison; voice++) {
+                    detuneRatios[voice] = ratio;
+                    ratio *= step;
+                }
+                ratioUnison = unison;
+                ratioDetune = unisonDetune;
+            }
             
             for (int voice = 0; voice < unison; voice++) {
                 double detunedFreq = modFreq;
                 
                 // Only apply detuning if detune knob > 0
                 if (unisonDetune > 0) {
-                    // Calculate voice position (-1 to 1 for spreading)
-                    double voicePos = (voice - (unison - 1) / 2.0) / Math.max(1, unison - 1);
-                    
-                    // Calculate detuned frequency for this voice with smoothing
-                    double detuneCents = voicePos * unisonDetune;
-                    double detuneRatio = Math.pow(2.0, detuneCents / 1200.0);
-                    detunedFreq = modFreq * detuneRatio;
+                    detunedFreq = modFreq * detuneRatios[voice];
                     
                     // Apply anti-aliasing and frequency limiting
                     detunedFreq = Math.min(detunedFreq, NYQUIST * 0.9);
                     detunedFreq = Math.max(detunedFreq, 20.0); // Prevent sub-audio frequencies
                 }
                 
-                // Generate the waveform for this voice with phase randomization
+                // Generate the waveform for this voice from where its last call left off
                 double phaseIncrement = (detunedFreq * TWO_PI) / SAMPLE_RATE;
-                // Add slight phase offset to break up beating patterns
-                double phaseOffset = (voice * 0.618033988749) * TWO_PI; // Golden ratio
-                double currentPhase = ((sampleIndex * phaseIncrement) + phaseOffset) % TWO_PI;
+                double currentPhase = unisonPhases[voice];
                 
-                for (int i = 0; i < buffer.length; i++) {
+                if (mode == Mode.BANDLIMITED && waveform != Synth.Waveform.SINE) {
+                    unisonPhases[voice] = renderBandLimited(out, offset, end, currentPhase, phaseIncrement, 1.0, true);
+                    continue;
+                }
+
+                if (mode != Mode.DIRECT) {
+                    Wavetable table = Wavetable.soft(waveform);
+                    for (int i = offset; i < end; i++) {
+                        out[i] += table.lookup(currentPhase);
+                        currentPhase += phaseIncrement;
+                        if (currentPhase >= TWO_PI) {
+                            currentPhase -= TWO_PI;
+                        }
+                    }
+                    unisonPhases[voice] = currentPhase;
+                    continue;
+                }
+
+                for (int i = offset; i < end; i++) {
                     double value;
                     switch (waveform) {
                         case SINE:
@@ -120,26 +234,56 @@ public class Oscillator {
                             value = Math.sin(currentPhase);
                     }
                     
-                    sum[i] += value;
+                    out[i] += value;
                     currentPhase += phaseIncrement;
                     if (currentPhase >= TWO_PI) {
                         currentPhase -= TWO_PI;
                     }
                 }
+                unisonPhases[voice] = currentPhase;
             }
             
             // Simple normalization
-            double scale = 1.0 / unison;
-            for (int i = 0; i < buffer.length; i++) {
-                buffer[i] = (sum[i] * scale) * volume;
-            }
+            OPS.scale(out, offset, length, volume / (double) unison);
         }
-        
-        return buffer;
     }
     
+    /**
+     * Writes (or, with {@code accumulate}, adds) PolyBLEP-corrected samples and
+     * returns the phase after the last one.
+     */
+    private double renderBandLimited(double[] out, int offset, int end, double currentPhase,
+                                     double phaseIncrement, double gain, boolean accumulate) {
+        double t = currentPhase / TWO_PI;
+        double dt = phaseIncrement / TWO_PI;
+        for (int i = offset; i < end; i++) {
+            double value;
+            switch (waveform) {
+                case SQUARE:
+                    value = PolyBlep.square(t, dt);
+                    break;
+                case SAW:
+                    value = PolyBlep.saw(t, dt);
+                    break;
+                default:
+                    value = PolyBlep.triangle(t, dt);
+            }
+
+            if (accumulate) {
+                out[i] += value;
+            } else {
+                out[i] = value * gain;
+            }
+            t += dt;
+            if (t >= 1.0) {
+                t -= 1.0;
+            }
+        }
+        return t * TWO_PI;
+    }
+
     // Backward compatibility method for single voice
-    public double[] nextBuffer(double modFreq, float volume, long sampleIndex, int unison) {
-        return nextBuffer(modFreq, volume, sampleIndex, unison, 0.0);
+    public double[] nextBuffer(double modFreq, float volume, int unison) {
+        return nextBuffer(modFreq, volume, unison, 0.0);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,64 @@
+package synth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import synth.dsp.BlockLevels;
+
+/**
+ * Output levels handed from the audio thread to the meters through one atomic word,
+ * so a reader always sees peak, RMS and clip count from the same moment and neither
+ * side locks or allocates.
+ *
+ * The word accumulates until a reader {@link #take}s it: peak and RMS are the highest
+ * of any block published since, and clipped samples are summed. A meter polling
+ * slower than the block rate therefore never misses a peak or a clip. Packing:
+ * the peak as float bits in the high half, the clip count (saturating at 65535) in
+ * bits 16 to 31, and the RMS as 16-bit fixed point over [0, 2) in the low bits.
+ */
+public final class OutputLevels {
+    private static final int CLIP_BITS = 0xFFFF;
+    private static final double RMS_SCALE = 65535 / 2.0;
+
+    private final AtomicLong levels = new AtomicLong();
+
+    /**
+     * Audio thread: merges one measured block into the pending levels. Lock-free; it
+     * only retries if a reader took the word in between.
+     */
+    public void publish(BlockLevels block) {
+        long prev;
+        long next;
+        do {
+            prev = levels.get();
+            next = pack(Math.max(peak(prev), block.getPeak()),
+                        Math.max(rms(prev), block.getRms()),
+                        clippedSamples(prev) + block.getClippedSamples());
+        } while (!levels.compareAndSet(prev, next));
+    }
+
+    /**
+     * Reader: returns the levels accumulated since the last take and starts over from
+     * silence. Decode the result with {@link #peak}, {@link #rms} and
+     * {@link #clippedSamples}; 0 means nothing but silence was played.
+     */
+    public long take() {
+        return levels.getAndSet(0L);
+    }
+
+    public static double peak(long levels) {
+        return Float.intBitsToFloat((int) (levels >>> 32));
+    }
+
+    public static double rms(long levels) {
+        return (levels & 0xFFFF) / RMS_SCALE;
+    }
+
+    public static int clippedSamples(long levels) {
+        return (int) (levels >>> 16) & CLIP_BITS;
+    }
+
+    private static long pack(double peak, double rms, int clipped) {
+        long peakBits = Float.floatToIntBits((float) Math.min(peak, Float.MAX_VALUE)) & 0xFFFFFFFFL;
+        long rmsBits = (long) Math.min(rms * RMS_SCALE + 0.5, 0xFFFF);
+        return peakBits << 32 | (long) Math.min(clipped, CLIP_BITS) << 16 | rmsBits;
+    }
+}
@@ -0,0 +1,109 @@
+package synth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free store of synth parameters shared between the Swing UI and the audio thread.
+ *
+ * UI controls publish raw control values with {@link #set}; the engine copies them into
+ * a preallocated {@link Snapshot} once per block with {@link #read}. Writes bump a
+ * sequence counter before and after (a seqlock), and the reader retries if a write
+ * overlapped its copy, so the audio thread never blocks, never allocates and never
+ * touches a Swing component.
+ */
+public class ParameterStore {
+    /** Every engine parameter, holding the raw value of its UI control. */
+    public enum Param {
+        OSC1_LEVEL(50), OSC2_LEVEL(50), MASTER(25),
+        DETUNE1(0), DETUNE2(0),
+        OCTAVE1(0), OCTAVE2(0),
+        VOICES1(1), VOICES2(1),
+        WAVEFORM1(0), WAVEFORM2(0), // Synth.Waveform ordinal
+        ATTACK(0), DECAY(0), SUSTAIN(100), RELEASE(0),
+        FILTER_ENABLED(0), FILTER_TYPE(0), CUTOFF(50), RESONANCE(0),
+        // Filter envelope: FILTER_ENV is its depth, the times are in 10 ms steps like the mod envelope's
+        FILTER_ENV(0), FILTER_ATTACK(0), FILTER_DECAY(50), FILTER_SUSTAIN(0), FILTER_RELEASE(30),
+        LFO_ENABLED(0), LFO_RATE(5), LFO_DEPTH(50), LFO_TARGET(0), // ModulationMatrix.Destination ordinal
+        LFO2_RATE(1), MOD_ENV_ATTACK(0), MOD_ENV_DECAY(50),
+        // Modulation matrix slots: ModulationMatrix.Source and Destination ordinals, amount -100 to 100
+        MOD1_SOURCE(0), MOD1_DEST(0), MOD1_AMOUNT(0),
+        MOD2_SOURCE(0), MOD2_DEST(0), MOD2_AMOUNT(0),
+        MOD3_SOURCE(0), MOD3_DEST(0), MOD3_AMOUNT(0),
+        // Master effects: delay time in ms, reverb decay in tenths of a second, the rest 0 to 100
+        DELAY_ENABLED(0), DELAY_TIME(300), DELAY_MIX(40), DELAY_FEEDBACK(35), DELAY_DAMPING(30),
+        REVERB_AMOUNT(20), REVERB_DECAY(20), REVERB_DAMPING(50),
+        CONVOLUTION_AMOUNT(30); // only heard once an impulse response is loaded
+
+        final double defaultValue;
+
+        Param(double defaultValue) {
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    private static final Param[] PARAMS = Param.values();
+
+    private final AtomicLongArray values = new AtomicLongArray(PARAMS.length);
+    private final AtomicLong sequence = new AtomicLong(); // odd while a write is in progress
+
+    public ParameterStore() {
+        for (Param p : PARAMS) {
+            values.set(p.ordinal(), Double.doubleToRawLongBits(p.defaultValue));
+        }
+    }
+
+    /**
+     * Publishes a value. Writers are serialized against each other; readers never wait on them.
+     */
+    public synchronized void set(Param param, double value) {
+        sequence.incrementAndGet();
+        values.set(param.ordinal(), Double.doubleToRawLongBits(value));
+        sequence.incrementAndGet();
+    }
+
+    public void set(Param param, boolean value) {
+        set(param, value ? 1.0 : 0.0);
+    }
+
+    /** Reads a single value, for callers that don't need a consistent block view. */
+    public double get(Param param) {
+        return Double.longBitsToDouble(values.get(param.ordinal()));
+    }
+
+    /**
+     * Copies a consistent view of every parameter into {@code out}, retrying if a
+     * write lands mid-copy.
+     */
+    public void read(Snapshot out) {
+        while (true) {
+            long before = sequence.get();
+            if ((before & 1L) == 0) {
+                for (int i = 0; i < out.values.length; i++) {
+                    out.values[i] = Double.longBitsToDouble(values.get(i));
+                }
+                if (sequence.get() == before) {
+                    return;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Preallocated per-block copy of the store, owned by the reading thread. */
+    public static final class Snapshot {
+        private final double[] values = new double[PARAMS.length];
+
+        public double get(Param param) {
+            return values[param.ordinal()];
+        }
+
+        public int getInt(Param param) {
+            return (int) values[param.ordinal()];
+        }
+
+        public boolean getBoolean(Param param) {
+            return values[param.ordinal()] != 0.0;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package synth;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import synth.dsp.BufferOps;
+
+/**
+ * Renders a {@link VoiceBank}'s voices in parallel on a fixed set of worker threads.
+ *
+ * For each segment the audio thread publishes the work, then joins in itself. Every
+ * participant claims voices from a shared counter, so a thread that finishes early
+ * takes the next voice rather than idling behind a heavy one. Each voice renders into
+ * its own slice, and {@link #endBlock} sums the slices in pool order. That is exactly
+ * the summation order of single-threaded mixing, so the output is bit-identical.
+ *
+ * Workers spin for a short while before parking, so back-to-back blocks are handed off
+ * without a kernel round trip; an idle synth costs no CPU once they have parked.
+ *
+ * A worker that throws still reports its segment done, and a worker that hasn't
+ * finished within a block's duration is given up on. Either way the pool drops back
+ * to rendering every voice on the audio thread, so one bad worker can't stop the
+ * output; a voice a stalled worker is still holding is skipped until it lets go.
+ */
+final class RenderPool {
+    // Spinning only pays off when the spinner isn't stealing the core it waits on
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 20_000 : 0;
+    // By the time the workers are a whole block late the block has missed its deadline anyway
+    private static final long MAX_WAIT_NANOS = (long) (Synth.BUFFER_SIZE / Synth.SAMPLE_RATE * 1e9);
+
+    private final Voice[] voices;
+    private final double[][] voiceBus;
+    private final boolean[] touched;
+    private final Worker[] workers;
+
+    // Current segment, written by the audio thread before bumping the generation
+    private int blockFrames;
+    private int segmentOffset;
+    private int segmentFrames;
+    private ParameterStore.Snapshot segmentParams;
+    private ModulationMatrix segmentModulation;
+
+    private final AtomicInteger nextVoice = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile long generation = 0;
+    private volatile boolean running = true;
+    private volatile boolean failed; // a worker threw or stalled: the audio thread renders alone
+
+    // The audio thread's own scratch when it joins in
+    private final double[] osc1Buffer = new double[Synth.BUFFER_SIZE];
+    private final double[] osc2Buffer = new double[Synth.BUFFER_SIZE];
+
+    /**
+     * @param threads total render threads including the audio thread, at least 2
+     */
+    RenderPool(Voice[] voices, int threads) {
+        this.voices = voices;
+        this.voiceBus = new double[voices.length][Synth.BUFFER_SIZE];
+        this.touched = new boolean[voices.length];
+        this.workers = new Worker[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /** Threads rendering voices: 1 once the pool has dropped back to the audio thread alone. */
+    int getThreadCount() {
+        return failed ? 1 : workers.length + 1;
+    }
+
+    void beginBlock(int frames) {
+        blockFrames = frames;
+        Arrays.fill(touched, false);
+    }
+
+    /** Renders every active voice over [offset, offset + frames) of the block, in parallel. */
+    void renderSegment(int offset, int frames, ParameterStore.Snapshot params, ModulationMatrix modulation) {
+        segmentOffset = offset;
+        segmentFrames = frames;
+        segmentParams = params;
+        segmentModulation = modulation;
+        nextVoice.set(0);
+        if (failed) {
+            renderVoices(osc1Buffer, osc2Buffer, null);
+            return;
+        }
+        pending.set(workers.length);
+        generation++; // publishes the fields above to the workers
+
+        for (Worker worker : workers) {
+            if (worker.parked) {
+                LockSupport.unpark(worker);
+            }
+        }
+
+        renderVoices(osc1Buffer, osc2Buffer, null);
+
+        if (!awaitWorkers()) {
+            failed = true; // the stalled worker's voice is lost for this segment
+            System.err.println("Render worker stalled; rendering voices on the audio thread from now on");
+        }
+    }
+
+    /** Waits for every worker to finish the segment, for at most a block's duration. */
+    private boolean awaitWorkers() {
+        if (pending.get() == 0) {
+            return true;
+        }
+        long start = System.nanoTime();
+        int spins = 0;
+        while (pending.get() > 0) {
+            if (System.nanoTime() - start >= MAX_WAIT_NANOS) {
+                return false;
+            }
+            if (++spins < SPIN_LIMIT) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    /** Adds every voice that sounded this block onto {@code bus}, in pool order. */
+    void endBlock(double[] bus, int frames) {
+        for (int v = 0; v < voices.length; v++) {
+            if (touched[v]) {
+                BufferOps.get().add(bus, 0, voiceBus[v], 0, frames);
+            }
+        }
+    }
+
+    void close() {
+        running = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /** Claims and renders voices until none are left; {@code self} is null on the audio thread. */
+    private void renderVoices(double[] osc1, double[] osc2, Worker self) {
+        boolean alone = self == null && failed;
+        int v;
+        while ((v = nextVoice.getAndIncrement()) < voices.length) {
+            Voice voice = voices[v];
+            if (self != null) {
+                self.claimed = v;
+                if (failed) {
+                    break; // a worker that was given up on takes no part in later segments
+                }
+            }
+            if (voice.isActive() && !(alone && heldByWorker(v))) {
+                if (!touched[v]) {
+                    Arrays.fill(voiceBus[v], 0, blockFrames, 0.0);
+                    touched[v] = true;
+                }
+                voice.render(voiceBus[v], segmentOffset, segmentFrames, osc1, osc2, segmentParams, segmentModulation);
+            }
+        }
+    }
+
+    private boolean heldByWorker(int voice) {
+        for (Worker worker : workers) {
+            if (worker.claimed == voice) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class Worker extends Thread {
+        private final double[] osc1Buffer = new double[Synth.BUFFER_SIZE];
+        private final double[] osc2Buffer = new double[Synth.BUFFER_SIZE];
+        volatile boolean parked;
+        volatile int claimed = -1; // the voice being rendered, so a stalled one isn't rendered twice
+
+        Worker(int index) {
+            super("synth-render-" + index);
+            setDaemon(true);
+            setPriority(Thread.MAX_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            long seen = 0;
+            while (running) {
+                long current = generation;
+                if (current == seen) {
+                    waitForWork(seen);
+                    continue;
+                }
+                seen = current;
+                try {
+                    renderVoices(osc1Buffer, osc2Buffer, this);
+                } catch (RuntimeException | Error e) {
+                    failed = true; // the audio thread renders alone from the next segment
+                    throw e;
+                } finally {
+                    claimed = -1;
+                    pending.decrementAndGet();
+                }
+            }
+        }
+
+        private void waitForWork(long seen) {
+            for (int i = 0; i < SPIN_LIMIT; i++) {
+                if (generation != seen || !running) {
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+            parked = true;
+            // Re-check after advertising, so a generation bump racing with us isn't missed
+            if (generation == seen && running) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+}
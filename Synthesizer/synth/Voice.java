@@ -1,208 +1,336 @@
 package synth;
 
-import synth.ui.ControlPanel;
-import synth.ui.ModulationPanel;
+import synth.ParameterStore.Param;
+import synth.dsp.BiquadFilter;
+import synth.dsp.BufferOps;
+import synth.dsp.EnvelopeGenerator;
+import synth.dsp.StateVariableFilter;
 
+/**
+ * One pooled synth voice. Voices are created once by {@link VoiceBank} and rearmed
+ * with {@link #start} for every note, so playing notes never allocates.
+ */
 public class Voice {
     private final Oscillator osc1;
     private final Oscillator osc2;
-    private final ControlPanel controls;
-    private final GainMeter gainMeter;
-    private final ModulationPanel mod;
-    private long startTime;
     private boolean active;
-    private long lastBufferTime;
-    private long sampleIndex = 0;
+    private double note;
+    private long startFrame;
     private static final double MAX_VOLUME = 0.25;
+    private static final BufferOps OPS = BufferOps.get();
 
-    // Add filter
-    private synth.dsp.BiquadFilter filter;
+    // FILTER_TYPE indices 0-2 pick a biquad response, the rest a state-variable mode
+    private static final int SVF_TYPE_OFFSET = 3;
+    private static final StateVariableFilter.Mode[] SVF_MODES = StateVariableFilter.Mode.values();
+    // Full FILTER_ENV sweeps the cutoff this many octaves above the knob at filter envelope peak
+    private static final double FILTER_ENV_OCTAVES = 6.0;
+    private static final double LN2 = Math.log(2.0);
 
-    // ADSR parameters
-    private int attackSamples;
-    private int decaySamples;
-    private int sustainSamples;
-    private int releaseSamples;
-    private double sustainLevel;
-    private int stage = 0; // 0=attack, 1=decay, 2=sustain, 3=release
+    private final BiquadFilter filter;
+    private final StateVariableFilter svf = new StateVariableFilter();
+    private final double[] cutoffBuffer = new double[Synth.BUFFER_SIZE];
+
+    // Modulation envelope, velocity and key tracking, and this voice's share of the matrix output
+    private final ModulationMatrix.VoiceState modulation = new ModulationMatrix.VoiceState();
+
+    // Linear attack and decay, exponential release; rendered a block at a time
+    private final EnvelopeGenerator envelope = new EnvelopeGenerator(
+        EnvelopeGenerator.Curve.LINEAR, EnvelopeGenerator.Curve.LINEAR, EnvelopeGenerator.Curve.EXPONENTIAL);
+    private final double[] envelopeBuffer = new double[Synth.BUFFER_SIZE];
     private boolean noteOff = false;
-    private long releaseStartIndex;
-    private double envReleaseStart;
-    private double prevEnv = 0.0;
-    private static final double ENVELOPE_SMOOTHING = 0.99;
-
-    public Voice(double freq1, Synth.Waveform wave1, double freq2, Synth.Waveform wave2,
-                ControlPanel controls, int atk, int dec, int sus, int rel,
-                GainMeter gainMeter, ModulationPanel mod) {
-        this.osc1 = new Oscillator(freq1, wave1);
-        this.osc2 = new Oscillator(freq2, wave2);
-        this.controls = controls;
-        this.gainMeter = gainMeter;
-        this.mod = mod;
-        this.startTime = System.nanoTime();
-        this.active = true;
-        this.lastBufferTime = startTime;
+
+    // Filter envelope, with its own times; armed at the next render, once the block's params are known.
+    // Linear in octaves, so every segment sweeps the cutoff exponentially in Hz and
+    // renders as a geometric sequence of cutoff multipliers
+    private final EnvelopeGenerator filterEnvelope = new EnvelopeGenerator(
+        EnvelopeGenerator.Curve.LINEAR, EnvelopeGenerator.Curve.LINEAR, EnvelopeGenerator.Curve.LINEAR);
+    private final double[] filterEnvelopeBuffer = new double[Synth.BUFFER_SIZE]; // cutoff multiplier per sample
+    private boolean filterTriggered;
+    private boolean filterReleasePending;
+
+    /** Creates an idle voice; it stays silent until {@link #start} is called. */
+    public Voice() {
+        this.osc1 = new Oscillator(0.0, Synth.Waveform.SINE);
+        this.osc2 = new Oscillator(0.0, Synth.Waveform.SINE);
+        this.active = false;
 
         // Initialize filter
-        this.filter = new synth.dsp.BiquadFilter(
-            synth.dsp.BiquadFilter.Type.LOWPASS,
+        this.filter = new BiquadFilter(
+            BiquadFilter.Type.LOWPASS,
             Synth.SAMPLE_RATE,
             1000,  // Default cutoff
             0.0    // Default Q (resonance)
         );
+    }
+
+    /**
+     * (Re)arms this voice for a new note. A voice that is still sounding, stolen or
+     * retriggered, keeps its oscillator phases and filter state so the waveform carries
+     * on from where it is while the envelope moves off from its current level; only an
+     * idle voice starts from zero phase and a cleared filter.
+     *
+     * @param velocity   0 to 1, a modulation source
+     * @param startFrame the bank's sample clock at note-on, used to rank voices for stealing
+     */
+    public void start(double freq, double velocity, Synth.Waveform wave1, Synth.Waveform wave2,
+                      int atk, int dec, int sus, int rel, double sustainLevel, long startFrame) {
+        if (active) {
+            // Restarting the phase or clearing the filter here would step the output by up
+            // to the current envelope level: a click on every steal and retrigger
+            osc1.setFrequency(freq);
+            osc1.setWaveform(wave1);
+            osc2.setFrequency(freq);
+            osc2.setWaveform(wave2);
+        } else {
+            osc1.reset(freq, wave1);
+            osc2.reset(freq, wave2);
+            filter.reset();
+            svf.reset();
+        }
 
-        // Convert ADSR times to samples
-        this.attackSamples = (int)(atk * Synth.SAMPLE_RATE / 1000.0);
-        this.decaySamples = (int)(dec * Synth.SAMPLE_RATE / 1000.0);
-        this.sustainSamples = (int)(sus * Synth.SAMPLE_RATE / 1000.0);
-        this.releaseSamples = (int)(rel * Synth.SAMPLE_RATE / 1000.0);
-        this.sustainLevel = controls.sustainKnob.getValue() / 100.0;
+        // Convert ADSR times to samples; the voice sustains until note-off, so sus is unused
+        envelope.setTimes(
+            (int)(atk * Synth.SAMPLE_RATE / 1000.0),
+            (int)(dec * Synth.SAMPLE_RATE / 1000.0),
+            -1,
+            (int)(rel * Synth.SAMPLE_RATE / 1000.0),
+            sustainLevel);
+        envelope.noteOn(); // from the current level, so a stolen voice doesn't jump to 0
+        modulation.noteOn(freq, velocity);
+        filterTriggered = true;
+        filterReleasePending = false;
+
+        this.noteOff = false;
+        this.note = freq;
+        this.startFrame = startFrame;
+        this.active = true;
     }
 
     public boolean isActive() {
         return active;
     }
 
-    public long getAge() {
-        return (System.nanoTime() - startTime) / 1_000_000;
+    /** True once {@link #noteOff} has moved the voice into its release stage. */
+    public boolean isReleased() {
+        return noteOff;
+    }
+
+    public double getNote() {
+        return note;
+    }
+
+    public long getStartFrame() {
+        return startFrame;
+    }
+
+    /** Current envelope level, for picking the quietest voice to steal. */
+    public double getLevel() {
+        return envelope.getLevel();
     }
 
     public void noteOff() {
         if (!noteOff) {
             noteOff = true;
-            stage = 3;
-            releaseStartIndex = sampleIndex;
-            envReleaseStart = prevEnv;
-        }
-    }
-
-    private double getEnvelope() {
-        long idx = sampleIndex;
-        double env;
-        
-        if (stage == 0) { // Attack
-            if (idx < attackSamples) {
-                env = idx / (double)attackSamples;
-            } else {
-                stage = 1;
-                env = 1.0;
-            }
-        } else if (stage == 1) { // Decay
-            long relIdx = idx - attackSamples;
-            if (relIdx < decaySamples) {
-                env = 1.0 - (1.0 - sustainLevel) * (relIdx / (double)decaySamples);
+            envelope.noteOff();
+            modulation.noteOff();
+            if (filterTriggered) {
+                filterReleasePending = true;
             } else {
-                stage = 2;
-                env = sustainLevel;
-            }
-        } else if (stage == 2) { // Sustain
-            if (noteOff) {
-                stage = 3;
-                releaseStartIndex = idx;
-                envReleaseStart = prevEnv;
-                env = sustainLevel;
-            } else {
-                env = sustainLevel;
-            }
-        } else { // Release
-            long rel = idx - releaseStartIndex;
-            if (rel < releaseSamples) {
-                // Exponential release for smoother fade out
-                double t = rel / (double)releaseSamples;
-                env = envReleaseStart * Math.exp(-5.0 * t);
-            } else {
-                env = 0.0;
-                active = false;
+                filterEnvelope.noteOff();
             }
         }
-
-        // Smooth envelope transitions
-        double smoothedEnv = (prevEnv * ENVELOPE_SMOOTHING + env * (1.0 - ENVELOPE_SMOOTHING));
-        prevEnv = smoothedEnv;
-        return smoothedEnv;
     }
 
-    public byte[] nextBuffer() {
+    /**
+     * Renders {@code frames} samples and adds them onto the floating-point mix bus {@code bus},
+     * starting at {@code offset} so a block can be split at a note event's exact frame.
+     * Nothing is clamped or quantized here; that happens once at the output stage.
+     * {@code osc1Buffer} and {@code osc2Buffer} are caller-owned scratch of at least
+     * {@code frames} samples, shared across voices since they render serially.
+     * All parameters come from {@code params}, the block's snapshot of the {@link ParameterStore},
+     * and {@code matrix}, whose {@link ModulationMatrix#beginBlock} has run for this block.
+     *
+     * The envelope is rendered first; once its release finishes, the rest of the block
+     * is skipped and the voice goes inactive.
+     *
+     * @return false if the voice is no longer active and nothing was written
+     */
+    public boolean render(double[] bus, int offset, int frames, double[] osc1Buffer, double[] osc2Buffer,
+                          ParameterStore.Snapshot params, ModulationMatrix matrix) {
         if (!active) {
-            return null;
+            return false;
+        }
+        int audible = envelope.render(envelopeBuffer, 0, frames);
+        if (audible < frames) {
+            active = false; // free for the next note-on from the following segment
+            if (audible == 0) {
+                return false;
+            }
         }
 
-        float vol1 = controls.osc1Slider.getValue() / 100f;
-        float vol2 = controls.osc2Slider.getValue() / 100f;
-        float master = controls.masterSlider.getValue() / 100f;
+        float vol1 = (float) params.get(Param.OSC1_LEVEL) / 100f;
+        float vol2 = (float) params.get(Param.OSC2_LEVEL) / 100f;
+        float master = (float) params.get(Param.MASTER) / 100f;
 
         // Calculate frequency with detune and octave adjustment
-        double detune1 = controls.detune1Slider.getValue() / 100.0; // Convert to 0.0 to 1.0 range
-        double detune2 = controls.detune2Slider.getValue() / 100.0; // Convert to 0.0 to 1.0 range
-        double octave1 = controls.osc1Octave.getValue(); // -2 to 2 range
-        double octave2 = controls.osc2Octave.getValue(); // -2 to 2 range
-        int voices1 = controls.osc1Voices.getValue(); // 1 to 16 range
-        int voices2 = controls.osc2Voices.getValue(); // 1 to 16 range
+        double detune1 = params.get(Param.DETUNE1) / 100.0; // Convert to 0.0 to 1.0 range
+        double detune2 = params.get(Param.DETUNE2) / 100.0; // Convert to 0.0 to 1.0 range
+        double octave1 = params.get(Param.OCTAVE1); // -2 to 2 range
+        double octave2 = params.get(Param.OCTAVE2); // -2 to 2 range
+        int voices1 = params.getInt(Param.VOICES1); // 1 to 16 range
+        int voices2 = params.getInt(Param.VOICES2); // 1 to 16 range
         
         double baseFreq1 = osc1.getFrequency() * Math.pow(2, octave1);
         double baseFreq2 = osc2.getFrequency() * Math.pow(2, octave2);
 
-        byte[] out = new byte[Synth.BUFFER_SIZE * 2];
-        double[] filteredSamples = new double[Synth.BUFFER_SIZE];
+        boolean modulated = matrix.isActive();
+        if (modulated) {
+            matrix.evaluate(modulation, offset, audible);
+        } else {
+            matrix.skip(modulation, audible);
+        }
 
         // Generate clean sine waves with multiple voices and detune control
-        double[] osc1Buffer = osc1.nextBuffer(baseFreq1, vol1, sampleIndex, voices1, detune1);
-        double[] osc2Buffer = osc2.nextBuffer(baseFreq2, vol2, sampleIndex, voices2, detune2);
-
-        // Update filter parameters if enabled
-        if (mod != null && mod.filterEnabled.isSelected()) {
-            // Convert filter type
-            synth.dsp.BiquadFilter.Type type;
-            switch (mod.filterType.getSelectedIndex()) {
-                case 1: type = synth.dsp.BiquadFilter.Type.HIGHPASS; break;
-                case 2: type = synth.dsp.BiquadFilter.Type.BANDPASS; break;
-                default: type = synth.dsp.BiquadFilter.Type.LOWPASS; break;
+        if (modulated && (matrix.routes(ModulationMatrix.Destination.PITCH)
+                || matrix.routes(ModulationMatrix.Destination.DETUNE))) {
+            // Pitch and detune step once per control period
+            int start = 0;
+            for (int c = 0; c < modulation.chunks; c++) {
+                int end = modulation.chunkEnd[c];
+                double ratio = modulation.pitch[c];
+                double detuneOffset = modulation.detune[c];
+                osc1.render(osc1Buffer, start, end - start, baseFreq1 * ratio, vol1, voices1,
+                            clampUnit(detune1 + detuneOffset));
+                osc2.render(osc2Buffer, start, end - start, baseFreq2 * ratio, vol2, voices2,
+                            clampUnit(detune2 + detuneOffset));
+                start = end;
+            }
+        } else {
+            osc1.render(osc1Buffer, 0, audible, baseFreq1, vol1, voices1, detune1);
+            osc2.render(osc2Buffer, 0, audible, baseFreq2, vol2, voices2, detune2);
+        }
+
+        // Mix oscillators a whole block at a time
+        OPS.scale(osc1Buffer, 0, audible, vol1);
+        OPS.multiplyAdd(osc1Buffer, 0, osc2Buffer, 0, audible, vol2);
+
+        // Apply envelope, and volume modulation interpolated to audio rate
+        if (modulated && matrix.routes(ModulationMatrix.Destination.VOLUME)) {
+            double[] gain = modulation.gain;
+            for (int i = 0; i < audible; i++) {
+                osc1Buffer[i] *= envelopeBuffer[i] * MAX_VOLUME * gain[i];
+            }
+        } else {
+            for (int i = 0; i < audible; i++) {
+                osc1Buffer[i] *= envelopeBuffer[i] * MAX_VOLUME;
             }
-            
-            // Update filter parameters
-            double cutoff = mod.cutoffSlider.getValue();
-            // Map cutoff slider (0-100) to frequency (20Hz - 20000Hz) logarithmically
-            cutoff = 20.0 * Math.pow(1000.0, cutoff / 100.0);  // This gives us 20Hz to 20kHz range
-            
-            // Clamp cutoff frequency to prevent distortion
-            cutoff = Math.max(20.0, Math.min(20000.0, cutoff));
-            
-            double resonance = mod.resonanceSlider.getValue() / 10.0;  // Convert to 0-10 range
-            // Clamp resonance to prevent instability
-            resonance = Math.max(0.1, Math.min(10.0, resonance));
-            
-            filter.update(type, Synth.SAMPLE_RATE, cutoff, resonance);
-        }
-
-        for (int i = 0; i < Synth.BUFFER_SIZE; i++) {
-            // Get envelope value
-            double env = getEnvelope();
-            
-            // Mix oscillators with envelope
-            double sample = (osc1Buffer[i] * vol1 + osc2Buffer[i] * vol2);
-            sample *= env * MAX_VOLUME;
-            
-            // Apply filter if enabled
-            if (mod != null && mod.filterEnabled.isSelected()) {
-                filteredSamples[i] = filter.process(sample);
+        }
+
+        triggerFilterEnvelope(params);
+        if (params.getBoolean(Param.FILTER_ENABLED)) {
+            applyFilter(osc1Buffer, audible, params, modulated ? matrix : null);
+        } else {
+            filterEnvelope.advance(audible); // keeps its place for when the filter comes back on
+        }
+
+        // Apply master volume and accumulate onto the bus
+        OPS.multiplyAdd(bus, offset, osc1Buffer, 0, audible, master);
+
+        return true;
+    }
+
+    /** Starts the filter envelope for a note armed by {@link #start}, with the block's times. */
+    private void triggerFilterEnvelope(ParameterStore.Snapshot params) {
+        if (!filterTriggered) {
+            return;
+        }
+        // Same 10 ms knob steps as the mod envelope
+        filterEnvelope.setTimes(
+            (int) (params.get(Param.FILTER_ATTACK) * 10 * Synth.SAMPLE_RATE / 1000.0),
+            (int) (params.get(Param.FILTER_DECAY) * 10 * Synth.SAMPLE_RATE / 1000.0),
+            -1,
+            (int) (params.get(Param.FILTER_RELEASE) * 10 * Synth.SAMPLE_RATE / 1000.0),
+            params.get(Param.FILTER_SUSTAIN) / 100.0);
+        filterEnvelope.noteOn();
+        if (filterReleasePending) {
+            filterEnvelope.noteOff();
+        }
+        filterTriggered = false;
+        filterReleasePending = false;
+    }
+
+    private static double clampUnit(double value) {
+        return value < 0.0 ? 0.0 : (value > 1.0 ? 1.0 : value);
+    }
+
+    /**
+     * Filters {@code buffer} in place. This voice's filter envelope raises the cutoff by
+     * up to {@link #FILTER_ENV_OCTAVES} octaves at FILTER_ENV's full depth, on top
+     * of any cutoff modulation from {@code matrix} (null when nothing is routed). The
+     * state-variable filter takes both per sample; the biquad only ramps toward the
+     * block's final value, since its coefficients can't be recomputed every sample.
+     * Both arrive as cutoff multipliers built by repeated multiplication, so the
+     * per-sample cutoff costs a multiply or two and no {@code Math.exp}.
+     */
+    private void applyFilter(double[] buffer, int frames, ParameterStore.Snapshot params, ModulationMatrix matrix) {
+        // Map cutoff slider (0-100) to frequency (20Hz - 20000Hz) logarithmically
+        double cutoff = 20.0 * Math.pow(1000.0, params.get(Param.CUTOFF) / 100.0);
+        cutoff = Math.max(20.0, Math.min(20000.0, cutoff));
+
+        double resonance = params.get(Param.RESONANCE) / 10.0;  // Convert to 0-10 range
+        // Clamp resonance to prevent instability
+        resonance = Math.max(0.1, Math.min(10.0, resonance));
+
+        // exp(envScale * level) is the cutoff multiplier at envelope level 0..1
+        double envScale = params.get(Param.FILTER_ENV) / 100.0 * FILTER_ENV_OCTAVES * LN2;
+        boolean enveloped = envScale > 0.0;
+        boolean cutoffModulated = matrix != null && matrix.routes(ModulationMatrix.Destination.CUTOFF);
+        double[] envelopeGain = filterEnvelopeBuffer;
+        if (enveloped) {
+            filterEnvelope.renderExp(envelopeGain, 0, frames, envScale);
+        } else {
+            filterEnvelope.advance(frames);
+        }
+        double[] modulationGain = modulation.cutoff;
+        if (matrix != null && matrix.routes(ModulationMatrix.Destination.RESONANCE)) {
+            resonance *= modulation.resonance;
+        }
+
+        int type = params.getInt(Param.FILTER_TYPE);
+        if (type >= SVF_TYPE_OFFSET) {
+            StateVariableFilter.Mode mode = SVF_MODES[Math.min(type - SVF_TYPE_OFFSET, SVF_MODES.length - 1)];
+            svf.setResonance(resonance);
+            if (enveloped && cutoffModulated) {
+                for (int i = 0; i < frames; i++) {
+                    cutoffBuffer[i] = cutoff * envelopeGain[i] * modulationGain[i];
+                }
+                svf.process(buffer, buffer, cutoffBuffer, frames, mode);
+            } else if (enveloped || cutoffModulated) {
+                double[] gain = enveloped ? envelopeGain : modulationGain;
+                for (int i = 0; i < frames; i++) {
+                    cutoffBuffer[i] = cutoff * gain[i];
+                }
+                svf.process(buffer, buffer, cutoffBuffer, frames, mode);
             } else {
-                filteredSamples[i] = sample;
+                svf.setCutoff(cutoff);
+                svf.process(buffer, buffer, frames, mode);
             }
-            
-            // Apply master volume
-            filteredSamples[i] *= master;
-
-            // Convert to 16-bit PCM
-            int pcm = (int)(filteredSamples[i] * Short.MAX_VALUE);
-            pcm = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, pcm));
-            
-            // Write 16-bit PCM (little-endian)
-            int outIndex = i * 2;
-            out[outIndex] = (byte)(pcm & 0xFF);
-            out[outIndex + 1] = (byte)((pcm >> 8) & 0xFF);
-        }
-
-        sampleIndex += Synth.BUFFER_SIZE;
-        return out;
+            return;
+        }
+
+        BiquadFilter.Type biquadType;
+        switch (type) {
+            case 1: biquadType = BiquadFilter.Type.HIGHPASS; break;
+            case 2: biquadType = BiquadFilter.Type.BANDPASS; break;
+            default: biquadType = BiquadFilter.Type.LOWPASS; break;
+        }
+        if (enveloped) {
+            cutoff *= envelopeGain[frames - 1];
+        }
+        if (cutoffModulated) {
+            cutoff *= modulationGain[frames - 1];
+        }
+        filter.update(biquadType, Synth.SAMPLE_RATE, cutoff, resonance);
+        filter.process(buffer, buffer, frames);
     }
-}
\ No newline at end of file
+}
@@ -1,105 +1,353 @@
 package synth;
 
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Arrays;
 
-import synth.ui.*;
+import synth.ParameterStore.Param;
 
+/**
+ * Fixed pool of preallocated voices with a hard polyphony limit. Note-on picks a free
+ * voice, or steals one according to the {@link StealPolicy}, and rearms it in place;
+ * it costs one pass over the pool and allocates nothing. Voice lifetimes follow the
+ * bank's sample clock: a voice is free again as soon as its release has finished.
+ *
+ * {@link #noteOn} and {@link #noteOff} never touch the pool. They stamp the event with
+ * a sample frame and push it onto a {@link NoteEventQueue}; the audio thread applies it
+ * inside {@link #mixVoices} at that exact frame, so the pool is single-threaded.
+ */
 public class VoiceBank {
-    private final List<Voice> voices = new CopyOnWriteArrayList<>();
-    private final Map<Double, Voice> activeVoices = new ConcurrentHashMap<>();
-    private final ControlPanel controls;
-    private final GainMeter gainMeter;
-    private final ModulationPanel mod;
-    private long lastMixTime = 0;
-    private static final long MAX_GAP_MS = 50;
-    private static final int MAX_VOICE_AGE = 1000; // Maximum age in milliseconds before removing a voice
-    private static final double MAX_VOLUME = 1.0; // Increased from 0.8 to 1.0
-
-    public VoiceBank(ControlPanel controls, GainMeter gainMeter, ModulationPanel modPanel) {
-        this.controls = controls;
-        this.gainMeter = gainMeter;
-        this.mod = modPanel;
-        if (modPanel != null) {
-            modPanel.lfoEnabled.setSelected(false);
-            modPanel.filterEnabled.setSelected(false);
+    /** Which sounding voice to take over when every voice in the pool is busy. */
+    public enum StealPolicy {
+        /** The voice that started earliest. */
+        OLDEST,
+        /** The voice with the lowest envelope level. */
+        QUIETEST,
+        /** The oldest voice already in release, else the oldest voice. */
+        RELEASED_FIRST,
+        /** A voice already playing the same note, else the oldest voice. */
+        SAME_NOTE
+    }
+
+    public static final int DEFAULT_MAX_VOICES = 16;
+    public static final int EVENT_QUEUE_CAPACITY = 1024;
+    private static final Synth.Waveform[] WAVEFORMS = Synth.Waveform.values();
+
+    private final Voice[] pool;
+    private final ParameterStore params;
+    private volatile StealPolicy stealPolicy;
+    private final NoteEventQueue events = new NoteEventQueue(EVENT_QUEUE_CAPACITY);
+
+    // Audio-thread clock, published at every block start so producers can stamp events
+    private long sampleClock = 0;
+    private volatile long blockStartFrame = 0;
+    private volatile long blockStartNanos = 0;
+    private volatile int blockFrames = 0;
+    private volatile int activeVoiceCount = 0;
+
+    // Optional multi-threaded rendering; null renders every voice on the calling thread
+    private RenderPool renderPool;
+
+    // Preallocated oscillator scratch so a steady-state block allocates nothing
+    private final double[] osc1Buffer = new double[Synth.BUFFER_SIZE];
+    private final double[] osc2Buffer = new double[Synth.BUFFER_SIZE];
+    private final ParameterStore.Snapshot snapshot = new ParameterStore.Snapshot();
+
+    // LFOs are shared by every voice; -Dsynth.controlRate sets the samples per modulation step
+    private final ModulationMatrix modulation =
+        new ModulationMatrix(Integer.getInteger("synth.controlRate", ModulationMatrix.DEFAULT_CONTROL_RATE));
+    private final MasterEffects effects = new MasterEffects();
+
+    public VoiceBank(ParameterStore params) {
+        this(params, DEFAULT_MAX_VOICES, StealPolicy.OLDEST);
+    }
+
+    public VoiceBank(ParameterStore params, int maxVoices, StealPolicy stealPolicy) {
+        if (maxVoices < 1) {
+            throw new IllegalArgumentException("maxVoices must be at least 1: " + maxVoices);
+        }
+        this.params = params;
+        this.stealPolicy = stealPolicy;
+        this.pool = new Voice[maxVoices];
+        for (int i = 0; i < maxVoices; i++) {
+            pool[i] = new Voice();
         }
     }
 
-    public void noteOn(double freq) {
-        if (activeVoices.containsKey(freq)) {
-            // If note is already playing, restart it
-            Voice existingVoice = activeVoices.get(freq);
-            voices.remove(existingVoice);
-            activeVoices.remove(freq);
+    public void setStealPolicy(StealPolicy stealPolicy) {
+        this.stealPolicy = stealPolicy;
+    }
+
+    public StealPolicy getStealPolicy() {
+        return stealPolicy;
+    }
+
+    public int getMaxVoices() {
+        return pool.length;
+    }
+
+    /**
+     * Renders voices on {@code threads} threads (the mixing thread plus workers) from now
+     * on; 1 or less switches back to single-threaded. Output is bit-identical either way.
+     * Call only while no block is being mixed, e.g. before the audio thread starts.
+     */
+    public void setRenderThreads(int threads) {
+        if (renderPool != null) {
+            renderPool.close();
+            renderPool = null;
         }
+        if (threads > 1) {
+            renderPool = new RenderPool(pool, threads);
+        }
+    }
 
-        int atk = controls.attackKnob.getValue() * 10;
-        int dec = controls.decayKnob.getValue() * 10;
-        int sus = controls.sustainKnob.getValue() * 10;
-        int rel = controls.releaseKnob.getValue() * 10;
+    /**
+     * Stops every thread the bank started: the render workers and the convolution
+     * reverb's tail worker. Call only while no block is being mixed, once the bank is
+     * done with; a bank that is left running leaks them.
+     */
+    public void close() {
+        setRenderThreads(1);
+        effects.close();
+    }
+
+    public int getRenderThreads() {
+        return renderPool != null ? renderPool.getThreadCount() : 1;
+    }
+
+    /**
+     * Queues a note-on for the frame that corresponds to "now" on the audio clock.
+     * Safe to call from the EDT; the voice starts inside the next rendered block.
+     */
+    public void noteOn(double freq) {
+        noteOn(freq, estimateFrame());
+    }
 
-        Synth.Waveform wave1 = controls.osc1Waveform();
-        Synth.Waveform wave2 = controls.osc2Waveform();
-        if (wave1 == null) wave1 = Synth.Waveform.SINE;
-        if (wave2 == null) wave2 = Synth.Waveform.SINE;
+    /** Queues a full-velocity note-on for sample frame {@code frame} of the bank's clock. */
+    public void noteOn(double freq, long frame) {
+        noteOn(freq, 1.0, frame);
+    }
 
-        Voice voice = new Voice(freq, wave1, freq, wave2, controls, atk, dec, sus, rel, gainMeter, mod);
-        voices.add(voice);
-        activeVoices.put(freq, voice);
+    /**
+     * Queues a note-on for sample frame {@code frame} of the bank's clock.
+     *
+     * @param velocity 0 to 1; only heard where the modulation matrix routes it
+     */
+    public void noteOn(double freq, double velocity, long frame) {
+        events.offer(frame, NoteEventQueue.NOTE_ON, freq, velocity);
     }
 
+    /** Queues a note-off for the frame that corresponds to "now" on the audio clock. */
     public void noteOff(double freq) {
-        Voice voice = activeVoices.get(freq);
+        noteOff(freq, estimateFrame());
+    }
+
+    /** Queues a note-off for sample frame {@code frame} of the bank's clock. */
+    public void noteOff(double freq, long frame) {
+        events.offer(frame, NoteEventQueue.NOTE_OFF, freq);
+    }
+
+    /**
+     * Maps the current wall-clock time onto the sample clock. The audio thread is
+     * rendering the block that started at {@code blockStartFrame}; events are placed one
+     * block later than their wall-clock position so they always land in a block that
+     * has not been rendered yet, with their spacing preserved to the sample.
+     */
+    private long estimateFrame() {
+        long frame;
+        long nanos;
+        int frames;
+        do {
+            frame = blockStartFrame;
+            nanos = blockStartNanos;
+            frames = blockFrames;
+        } while (frame != blockStartFrame);
+
+        if (nanos == 0) {
+            return frame; // audio thread hasn't started; apply at the first block
+        }
+        long elapsed = (long) ((System.nanoTime() - nanos) * Synth.SAMPLE_RATE / 1_000_000_000.0);
+        return frame + frames + Math.max(0, Math.min(frames, elapsed));
+    }
+
+    private void startNote(double freq, double velocity) {
+        int atk = snapshot.getInt(Param.ATTACK) * 10;
+        int dec = snapshot.getInt(Param.DECAY) * 10;
+        int sus = snapshot.getInt(Param.SUSTAIN) * 10;
+        int rel = snapshot.getInt(Param.RELEASE) * 10;
+        double sustainLevel = snapshot.get(Param.SUSTAIN) / 100.0;
+
+        Synth.Waveform wave1 = WAVEFORMS[snapshot.getInt(Param.WAVEFORM1)];
+        Synth.Waveform wave2 = WAVEFORMS[snapshot.getInt(Param.WAVEFORM2)];
+
+        Voice voice = allocate(freq);
+        voice.start(freq, velocity, wave1, wave2, atk, dec, sus, rel, sustainLevel, sampleClock);
+    }
+
+    private void stopNote(double freq) {
+        Voice voice = findHeld(freq);
         if (voice != null) {
             voice.noteOff();
-            activeVoices.remove(freq);
         }
     }
 
-    public byte[] mixVoices() {
-        byte[] mixed = new byte[Synth.BUFFER_SIZE * 2];
-        boolean hasActiveVoices = false;
+    /**
+     * Picks the voice for a new note: the voice already holding this note (it is
+     * restarted), else a free voice, else one chosen by the steal policy.
+     */
+    private Voice allocate(double freq) {
+        Voice held = findHeld(freq);
+        if (held != null) {
+            return held;
+        }
+        for (Voice voice : pool) {
+            if (!voice.isActive()) {
+                return voice;
+            }
+        }
 
-        // Mix all active voices
-        for (Voice voice : voices) {
-            if (voice.isActive()) {
-                byte[] buffer = voice.nextBuffer();
-                if (buffer != null) {
-                    hasActiveVoices = true;
-                    for (int i = 0; i < buffer.length; i += 2) {
-                        // Convert bytes to 16-bit PCM
-                        int sample1 = (buffer[i] & 0xFF) | (buffer[i + 1] << 8);
-                        int sample2 = (mixed[i] & 0xFF) | (mixed[i + 1] << 8);
-                        
-                        // Mix without volume scaling
-                        int mixedSample = sample1 + sample2;
-                        
-                        // Clamp to 16-bit range
-                        mixedSample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixedSample));
-                        
-                        // Convert back to bytes
-                        mixed[i] = (byte)(mixedSample & 0xFF);
-                        mixed[i + 1] = (byte)((mixedSample >> 8) & 0xFF);
-                    }
+        Voice oldest = pool[0];
+        Voice oldestReleased = null;
+        Voice quietest = pool[0];
+        Voice sameNote = null;
+        for (Voice voice : pool) {
+            if (voice.getStartFrame() < oldest.getStartFrame()) {
+                oldest = voice;
+            }
+            if (voice.getLevel() < quietest.getLevel()) {
+                quietest = voice;
+            }
+            if (voice.isReleased()
+                    && (oldestReleased == null || voice.getStartFrame() < oldestReleased.getStartFrame())) {
+                oldestReleased = voice;
+            }
+            if (sameNote == null && voice.getNote() == freq) {
+                sameNote = voice;
+            }
+        }
+
+        switch (stealPolicy) {
+            case QUIETEST:
+                return quietest;
+            case RELEASED_FIRST:
+                return oldestReleased != null ? oldestReleased : oldest;
+            case SAME_NOTE:
+                return sameNote != null ? sameNote : oldest;
+            default:
+                return oldest;
+        }
+    }
+
+    private Voice findHeld(double freq) {
+        for (Voice voice : pool) {
+            if (voice.isActive() && !voice.isReleased() && voice.getNote() == freq) {
+                return voice;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mixes a full {@link Synth#BUFFER_SIZE} block into {@code bus}.
+     */
+    public void mixVoices(double[] bus) {
+        mixVoices(bus, Synth.BUFFER_SIZE);
+    }
+
+    /**
+     * Mixes {@code frames} samples of all active voices into the caller's floating-point
+     * bus; {@code frames} may be anything up to {@link Synth#BUFFER_SIZE}. The bus is
+     * cleared first, voices are summed and run through the {@link MasterEffects}, and the
+     * result is left unclamped; converting to the device format is the output
+     * stage's job. Parameters are read once per block from the {@link ParameterStore}.
+     *
+     * Queued note events are applied at their exact frame: the block is rendered in
+     * segments split at each event falling inside it. Events stamped before the block
+     * (late producers) take effect at its first frame; later ones stay queued.
+     */
+    public void mixVoices(double[] bus, int frames) {
+        long blockStart = sampleClock;
+        blockStartNanos = System.nanoTime();
+        blockFrames = frames;
+        blockStartFrame = blockStart;
+
+        Arrays.fill(bus, 0, frames, 0.0);
+        params.read(snapshot);
+        modulation.beginBlock(snapshot, frames);
+        RenderPool parallel = renderPool;
+        if (parallel != null) {
+            parallel.beginBlock(frames);
+        }
+
+        int pos = 0;
+        while (pos < frames) {
+            // Apply everything due at or before this frame
+            while (!events.isEmpty() && events.peekFrame() <= sampleClock) {
+                if (events.peekType() == NoteEventQueue.NOTE_ON) {
+                    startNote(events.peekFreq(), events.peekVelocity());
+                } else {
+                    stopNote(events.peekFreq());
                 }
+                events.poll();
+            }
+
+            // Render up to the next event inside this block, or to the block end
+            int end = frames;
+            if (!events.isEmpty() && events.peekFrame() < blockStart + frames) {
+                end = (int) (events.peekFrame() - blockStart);
+            }
+            if (parallel != null) {
+                parallel.renderSegment(pos, end - pos, snapshot, modulation);
+                sampleClock += end - pos;
+            } else {
+                renderSegment(bus, pos, end - pos);
             }
+            pos = end;
         }
+        if (parallel != null) {
+            parallel.endBlock(bus, frames);
+        }
+        effects.process(bus, frames, snapshot);
 
-        // Remove finished voices
-        voices.removeIf(voice -> !voice.isActive() && voice.getAge() > MAX_VOICE_AGE);
+        int count = 0;
+        for (Voice voice : pool) {
+            if (voice.isActive()) {
+                count++;
+            }
+        }
+        activeVoiceCount = count;
+    }
 
-        // Update gain meter
-        if (hasActiveVoices) {
-            gainMeter.repaint();
+    private void renderSegment(double[] bus, int offset, int frames) {
+        // A voice whose release ends here is free for the next note-on
+        for (Voice voice : pool) {
+            if (voice.isActive()) {
+                voice.render(bus, offset, frames, osc1Buffer, osc2Buffer, snapshot, modulation);
+            }
         }
+        sampleClock += frames;
+    }
 
-        return mixed;
+    /** The master-bus effects applied at the end of every block. */
+    public MasterEffects getEffects() {
+        return effects;
     }
 
+    /** Number of voices sounding at the end of the last block, including those in release. */
     public int getActiveVoiceCount() {
-        return activeVoices.size();
+        return activeVoiceCount;
+    }
+
+    /** Frames rendered since the bank was created, as of the last block start. */
+    public long getSampleClock() {
+        return blockStartFrame;
+    }
+
+    /** Note events queued and not yet applied by the audio thread. */
+    public int getQueuedEventCount() {
+        return events.size();
+    }
+
+    /** Note events dropped because the event queue was full. */
+    public long getDroppedEventCount() {
+        return events.getDroppedCount();
     }
-}
\ No newline at end of file
+}
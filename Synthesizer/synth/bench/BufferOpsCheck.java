@@ -0,0 +1,174 @@
+package synth.bench;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import synth.Synth;
+import synth.dsp.BufferOps;
+
+/**
+ * Checks that the vectorized {@link BufferOps} kernels match the scalar ones bit for
+ * bit, over every length up to a few vectors (all tail sizes) and a full block with
+ * out-of-range samples, then times each of them on both paths. Kernels the vector
+ * implementation inherits run the same scalar code on both paths, so they are listed
+ * and skipped rather than compared with themselves. Exits non-zero on a mismatch.
+ *
+ * Run with: java --add-modules jdk.incubator.vector synth.bench.BufferOpsCheck
+ */
+public class BufferOpsCheck {
+    private static final int ROUNDS = 20_000;
+    private static final String[] KERNELS = {"add", "scale", "multiplyAdd", "clamp", "toPcm16"};
+
+    public static void main(String[] args) {
+        BufferOps scalar = BufferOps.scalar();
+        BufferOps vector = BufferOps.vector();
+        if (vector == null) {
+            System.err.println("FAIL: Vector API unavailable; compile Synthesizer/vector and start the JVM"
+                + " with --add-modules jdk.incubator.vector");
+            System.exit(1);
+        }
+        List<String> vectorized = new ArrayList<>();
+        List<String> shared = new ArrayList<>();
+        for (String kernel : KERNELS) {
+            (overrides(vector, scalar, kernel) ? vectorized : shared).add(kernel);
+        }
+        System.out.println("Comparing " + scalar.getName() + " against " + vector.getName() + ": " + vectorized);
+        System.out.println("Scalar on both paths, not compared: " + shared);
+
+        Random random = new Random(42);
+        int failures = 0;
+        for (int length = 0; length <= 67; length++) {
+            failures += compare(scalar, vector, vectorized, random, length);
+        }
+        failures += compare(scalar, vector, vectorized, random, Synth.BUFFER_SIZE);
+        if (failures > 0) {
+            System.err.println("FAIL: " + failures + " kernel results differ");
+            System.exit(1);
+        }
+        System.out.println("OK: vectorized kernels bit-identical to scalar");
+
+        for (BufferOps ops : new BufferOps[] {scalar, vector}) {
+            time(ops, vectorized, random);
+        }
+        System.exit(0);
+    }
+
+    /** True if {@code vector} declares its own {@code kernel}, rather than running the scalar code. */
+    private static boolean overrides(BufferOps vector, BufferOps scalar, String kernel) {
+        for (Method method : vector.getClass().getMethods()) {
+            if (method.getName().equals(kernel) && !method.getDeclaringClass().isInstance(scalar)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compare(BufferOps scalar, BufferOps vector, List<String> kernels,
+                               Random random, int length) {
+        int offset = 3; // exercise unaligned starts
+        double[] src = noise(random, length + offset);
+        double[] dst = noise(random, length + offset);
+        int failures = 0;
+        double[] a;
+        double[] b;
+
+        if (kernels.contains("add")) {
+            a = dst.clone();
+            b = dst.clone();
+            scalar.add(a, offset, src, offset, length);
+            vector.add(b, offset, src, offset, length);
+            failures += check("add", length, a, b);
+        }
+
+        if (kernels.contains("scale")) {
+            a = dst.clone();
+            b = dst.clone();
+            scalar.scale(a, offset, length, 0.3);
+            vector.scale(b, offset, length, 0.3);
+            failures += check("scale", length, a, b);
+        }
+
+        if (kernels.contains("multiplyAdd")) {
+            a = dst.clone();
+            b = dst.clone();
+            scalar.multiplyAdd(a, offset, src, 0, length, 0.7);
+            vector.multiplyAdd(b, offset, src, 0, length, 0.7);
+            failures += check("multiplyAdd", length, a, b);
+        }
+
+        if (kernels.contains("clamp")) {
+            a = dst.clone();
+            b = dst.clone();
+            scalar.clamp(a, offset, length, -1.0, 1.0);
+            vector.clamp(b, offset, length, -1.0, 1.0);
+            failures += check("clamp", length, a, b);
+        }
+
+        if (kernels.contains("toPcm16")) {
+            byte[] pcmA = new byte[length * 2];
+            byte[] pcmB = new byte[length * 2];
+            scalar.toPcm16(src, pcmA, length);
+            vector.toPcm16(src, pcmB, length);
+            if (!Arrays.equals(pcmA, pcmB)) {
+                System.err.println("toPcm16 differs at length " + length);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private static int check(String kernel, int length, double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Double.doubleToRawLongBits(a[i]) != Double.doubleToRawLongBits(b[i])) {
+                System.err.printf("%s differs at length %d, index %d: %s vs %s%n", kernel, length, i, a[i], b[i]);
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /** Mostly in [-1.5, 1.5] so clamping bites, with the odd special value mixed in. */
+    private static double[] noise(Random random, int length) {
+        double[] data = new double[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (random.nextDouble() * 2.0 - 1.0) * 1.5;
+        }
+        if (length > 8) {
+            data[1] = -0.0;
+            data[5] = Double.NaN;
+            data[7] = -1.0;
+        }
+        return data;
+    }
+
+    private static void time(BufferOps ops, List<String> kernels, Random random) {
+        int n = Synth.BUFFER_SIZE;
+        double[] bus = noise(random, n);
+        double[] src = noise(random, n);
+        byte[] pcm = new byte[n * 2];
+        for (int k = 0; k < KERNELS.length; k++) {
+            if (!kernels.contains(KERNELS[k])) {
+                continue;
+            }
+            for (int pass = 0; pass < 2; pass++) { // first pass warms up
+                long start = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++) {
+                    switch (k) {
+                        case 0: ops.add(bus, 0, src, 0, n); break;
+                        case 1: ops.scale(bus, 0, n, 0.999); break;
+                        case 2: ops.multiplyAdd(bus, 0, src, 0, n, 1e-3); break;
+                        case 3: ops.clamp(bus, 0, n, -1.0, 1.0); break;
+                        default: ops.toPcm16(src, pcm, n);
+                    }
+                }
+                if (pass == 1) {
+                    double nsPerSample = (System.nanoTime() - start) / (double) ROUNDS / n;
+                    System.out.printf("%-10s %-12s %6.3f ns/sample%n", ops.getName(), KERNELS[k], nsPerSample);
+                }
+            }
+        }
+    }
+}
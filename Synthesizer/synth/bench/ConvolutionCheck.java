@@ -0,0 +1,235 @@
+package synth.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import synth.Synth;
+import synth.dsp.ImpulseResponse;
+import synth.dsp.PartitionedConvolver;
+
+/**
+ * Checks {@link PartitionedConvolver} against direct convolution: impulse responses
+ * shorter than one head partition, ending exactly at and just past the head, and
+ * reaching well into the tail, each fed noise in blocks of random length. The wet
+ * output must equal the direct result, delayed by the convolver's latency, to within
+ * rounding; these runs wait for the worker as an offline render does. Then it switches
+ * responses mid-stream: every output sample must be a blend of the old response's
+ * output and the new one's, with the share of the new one rising steadily from none
+ * to all over one tail partition, so nothing steps or mixes heads and tails. Last, a real-time
+ * run, fed far faster than real time, may drop tail partitions its worker couldn't
+ * finish, but each must be dropped whole: every partition of output is either exact
+ * or exactly the head's part. Reports how often the tail worker was late, and checks
+ * that closing each convolver stopped its worker thread.
+ * Exits non-zero on a mismatch.
+ *
+ * Run with: java synth.bench.ConvolutionCheck
+ */
+public class ConvolutionCheck {
+    private static final int INPUT_FRAMES = 44_100;
+    private static final double TOLERANCE = 1e-12;
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        int failures = 0;
+        for (int length : new int[] {100, PartitionedConvolver.HEAD_LENGTH, PartitionedConvolver.HEAD_LENGTH + 1, 20_000}) {
+            failures += compare(random, length);
+        }
+        failures += switchResponse(random);
+        failures += realTime(random);
+        failures += workersStopped();
+        if (failures > 0) {
+            System.err.println("FAIL: " + failures + " convolution results differ");
+            System.exit(1);
+        }
+        System.out.println("OK: partitioned convolution matches direct convolution");
+        System.exit(0);
+    }
+
+    private static int compare(Random random, int length) {
+        double[] response = decayingNoise(random, length);
+        double[] input = noise(random, INPUT_FRAMES);
+        PartitionedConvolver convolver = new PartitionedConvolver();
+        convolver.setRealTime(false);
+        convolver.setImpulseResponse(ImpulseResponse.fromSamples("noise", response, Synth.SAMPLE_RATE));
+        convolver.setLevel(1.0);
+        double[] wet = run(convolver, input, random, null);
+
+        double[] expected = direct(normalize(response), input, convolver.getLatency());
+        double error = maxDifference(expected, wet, 0);
+        convolver.close();
+        boolean ok = error <= TOLERANCE;
+        System.out.printf("%-5s response %6d samples: max error %.2e, %d late tail partitions%n",
+            ok ? "ok" : "FAIL", length, error, convolver.getLateCount());
+        return ok ? 0 : 1;
+    }
+
+    /** Switches from one response to another halfway; the output must crossfade from one to the other. */
+    private static int switchResponse(Random random) {
+        double[] first = decayingNoise(random, 10_000);
+        double[] second = decayingNoise(random, 10_000);
+        double[] input = noise(random, INPUT_FRAMES);
+        PartitionedConvolver convolver = new PartitionedConvolver();
+        convolver.setRealTime(false);
+        convolver.setImpulseResponse(ImpulseResponse.fromSamples("first", first, Synth.SAMPLE_RATE));
+        convolver.setLevel(1.0);
+        ImpulseResponse next = ImpulseResponse.fromSamples("second", second, Synth.SAMPLE_RATE);
+        double[] wet = run(convolver, input, random, next);
+
+        // The call lands with the block that straddles the halfway mark, is picked up at the
+        // next tail partition boundary, plays the two tail partitions already queued on the
+        // old response, then fades over one more
+        double[] before = direct(normalize(first), input, convolver.getLatency());
+        double[] expected = direct(normalize(second), input, convolver.getLatency());
+        int settled = INPUT_FRAMES / 2 + Synth.BUFFER_SIZE + 4 * PartitionedConvolver.TAIL_PARTITION
+            + convolver.getLatency();
+        double error = maxDifference(expected, wet, settled);
+        convolver.close();
+
+        // Share of the new response in each sample, where the two differ enough to tell
+        double step = 1.0 / PartitionedConvolver.TAIL_PARTITION;
+        double share = 0.0;
+        double jump = 0.0;
+        int last = 0;
+        boolean blended = maxDifference(before, wet, 0, INPUT_FRAMES / 2) <= TOLERANCE;
+        for (int i = INPUT_FRAMES / 2; i < settled; i++) {
+            double apart = expected[i] - before[i];
+            if (Math.abs(apart) < 1e-3) {
+                continue;
+            }
+            double now = (wet[i] - before[i]) / apart;
+            blended &= now >= share - 1e-9 && now <= 1.0 + 1e-9;
+            jump = Math.max(jump, (now - share) / Math.max(1, i - last));
+            share = now;
+            last = i;
+        }
+        blended &= jump <= step + 1e-9 && share >= 1.0 - 1e-9;
+        boolean ok = error <= TOLERANCE && blended && convolver.getImpulseResponse() == next;
+        System.out.printf("%-5s switching responses: max error %.2e once settled, fade steps at most %.2e a sample%n",
+            ok ? "ok" : "FAIL", error, jump);
+        return ok ? 0 : 1;
+    }
+
+    /** Lets late tail partitions drop; each output partition must have the whole tail or none of it. */
+    private static int realTime(Random random) {
+        double[] response = decayingNoise(random, 40_000);
+        double[] input = noise(random, INPUT_FRAMES);
+        PartitionedConvolver convolver = new PartitionedConvolver();
+        convolver.setImpulseResponse(ImpulseResponse.fromSamples("noise", response, Synth.SAMPLE_RATE));
+        convolver.setLevel(1.0);
+        double[] wet = run(convolver, input, random, null);
+        convolver.close();
+
+        double[] full = normalize(response);
+        double[] head = Arrays.copyOf(full, PartitionedConvolver.HEAD_LENGTH);
+        double[] expected = direct(full, input, convolver.getLatency());
+        double[] headOnly = direct(head, input, convolver.getLatency());
+        // Tail partition k is heard from input sample (k + 2) * TAIL_PARTITION, plus the latency
+        int bad = 0;
+        int dropped = 0;
+        int start = PartitionedConvolver.HEAD_LENGTH + convolver.getLatency();
+        for (int from = start; from < input.length; from += PartitionedConvolver.TAIL_PARTITION) {
+            int to = Math.min(input.length, from + PartitionedConvolver.TAIL_PARTITION);
+            if (maxDifference(expected, wet, from, to) <= TOLERANCE) {
+                continue;
+            }
+            if (maxDifference(headOnly, wet, from, to) <= TOLERANCE) {
+                dropped++;
+            } else {
+                bad++;
+            }
+        }
+        boolean ok = bad == 0 && maxDifference(expected, wet, 0, start) <= TOLERANCE;
+        System.out.printf("%-5s real time: %d late tail partitions, %d dropped whole, %d mangled%n",
+            ok ? "ok" : "FAIL", convolver.getLateCount(), dropped, bad);
+        return ok ? 0 : 1;
+    }
+
+    /** Every convolver above was closed, so within a moment no tail worker is left running. */
+    private static int workersStopped() {
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        long alive;
+        do {
+            alive = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("synth-convolver")).count();
+            Thread.onSpinWait();
+        } while (alive > 0 && System.nanoTime() < deadline);
+        System.out.printf("%-5s close: %d tail workers still running%n", alive == 0 ? "ok" : "FAIL", alive);
+        return alive == 0 ? 0 : 1;
+    }
+
+    /** Feeds {@code input} through in random block sizes and returns the wet signal alone. */
+    private static double[] run(PartitionedConvolver convolver, double[] input, Random random, ImpulseResponse switchTo) {
+        double[] wet = new double[input.length];
+        double[] bus = new double[Synth.BUFFER_SIZE];
+        int pos = 0;
+        while (pos < input.length) {
+            if (switchTo != null && pos >= input.length / 2) {
+                convolver.setImpulseResponse(switchTo);
+                switchTo = null;
+            }
+            int frames = Math.min(input.length - pos, 1 + random.nextInt(Synth.BUFFER_SIZE));
+            System.arraycopy(input, pos, bus, 0, frames);
+            convolver.process(bus, frames);
+            for (int i = 0; i < frames; i++) {
+                wet[pos + i] = bus[i] - input[pos + i];
+            }
+            pos += frames;
+        }
+        return wet;
+    }
+
+    private static double[] direct(double[] response, double[] input, int latency) {
+        double[] out = new double[input.length];
+        for (int n = latency; n < out.length; n++) {
+            int m = n - latency;
+            double sum = 0.0;
+            for (int k = 0; k <= Math.min(m, response.length - 1); k++) {
+                sum += response[k] * input[m - k];
+            }
+            out[n] = sum;
+        }
+        return out;
+    }
+
+    private static double maxDifference(double[] a, double[] b, int from) {
+        return maxDifference(a, b, from, a.length);
+    }
+
+    private static double maxDifference(double[] a, double[] b, int from, int to) {
+        double max = 0.0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+
+    /** The unit-energy scaling {@link ImpulseResponse} applies. */
+    private static double[] normalize(double[] response) {
+        double energy = 0.0;
+        for (double s : response) {
+            energy += s * s;
+        }
+        double gain = 1.0 / Math.sqrt(energy);
+        double[] out = new double[response.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = response[i] * gain;
+        }
+        return out;
+    }
+
+    private static double[] decayingNoise(Random random, int length) {
+        double[] out = new double[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = random.nextGaussian() * Math.exp(-i / 5000.0);
+        }
+        return out;
+    }
+
+    private static double[] noise(Random random, int length) {
+        double[] out = new double[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = random.nextGaussian() * 0.1;
+        }
+        return out;
+    }
+}
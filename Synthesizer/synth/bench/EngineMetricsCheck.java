@@ -0,0 +1,112 @@
+package synth.bench;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import synth.EngineMetrics;
+import synth.ParameterStore;
+import synth.Synth;
+import synth.VoiceBank;
+
+/**
+ * Headless check of the engine metrics. Renders blocks the way the audio thread does,
+ * recording each one, and verifies that recording allocates nothing; then forces a few
+ * collections with garbage made on another thread and reads every attribute back
+ * through the platform MBean server, as JConsole would. Exits non-zero if recording
+ * allocates or the bean doesn't report what was rendered.
+ *
+ * Run with: java synth.bench.EngineMetricsCheck [blocks]
+ */
+public class EngineMetricsCheck {
+    private static final int BLOCK_FRAMES = 512;
+    private static final int WARMUP_BLOCKS = 4_000;
+    private static final int MAX_WINDOWS = 5;
+    private static final double[] CHORD = {261.63, 329.63, 392.00, 493.88};
+    private static final String[] ATTRIBUTES = {
+        "BlockCount", "RenderTimeMinMicros", "RenderTimeAvgMicros", "RenderTimeP99Micros",
+        "RenderTimeMaxMicros", "PeriodMicros", "HeadroomAvgPercent", "HeadroomMinPercent",
+        "DeadlineMisses", "Underruns", "ActiveVoices", "PeakVoices", "MaxVoices",
+        "QueuedEvents", "DroppedEvents", "GcPauses", "GcPauseTimeMillis",
+        "GcOverlappedBlocks", "RenderErrors", "LastError"
+    };
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        VoiceBank voiceBank = new VoiceBank(new ParameterStore());
+        EngineMetrics metrics = new EngineMetrics(voiceBank, (int) Synth.SAMPLE_RATE);
+        metrics.register();
+        for (double freq : CHORD) {
+            voiceBank.noteOn(freq);
+        }
+
+        double[] bus = new double[Synth.BUFFER_SIZE];
+        for (int i = 0; i < WARMUP_BLOCKS; i++) {
+            renderBlock(voiceBank, metrics, bus);
+        }
+        metrics.resetStatistics();
+
+        boolean clean = false;
+        for (int window = 1; window <= MAX_WINDOWS && !clean; window++) {
+            long before = threads.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < blocks; i++) {
+                renderBlock(voiceBank, metrics, bus);
+            }
+            long allocated = threads.getThreadAllocatedBytes(tid) - before;
+            System.out.printf("Window %d: recorded %d blocks: %d bytes allocated%n", window, blocks, allocated);
+            clean = allocated == 0;
+        }
+
+        // Collections while blocks are being rendered, to exercise the overlap matching
+        Thread garbage = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                for (int j = 0; j < 10_000; j++) {
+                    sink = new byte[1024];
+                }
+                System.gc();
+            }
+        });
+        garbage.start();
+        while (garbage.isAlive()) {
+            renderBlock(voiceBank, metrics, bus);
+        }
+        Thread.sleep(500); // GC notifications are delivered asynchronously
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(EngineMetrics.OBJECT_NAME);
+        for (String attribute : ATTRIBUTES) {
+            System.out.printf("  %-20s %s%n", attribute, server.getAttribute(name, attribute));
+        }
+
+        long recorded = (Long) server.getAttribute(name, "BlockCount");
+        int peak = (Integer) server.getAttribute(name, "PeakVoices");
+        long pauses = (Long) server.getAttribute(name, "GcPauses");
+        double p99 = (Double) server.getAttribute(name, "RenderTimeP99Micros");
+        double max = (Double) server.getAttribute(name, "RenderTimeMaxMicros");
+        metrics.unregister();
+
+        if (!clean) {
+            System.err.println("FAIL: recording metrics allocates on the audio thread");
+            System.exit(1);
+        }
+        if (recorded < blocks || peak != CHORD.length || pauses == 0 || p99 <= 0.0 || p99 > max * 1.125) {
+            System.err.println("FAIL: bean does not match what was rendered");
+            System.exit(1);
+        }
+        System.out.println("OK: metrics are allocation-free and readable over JMX");
+        System.exit(0);
+    }
+
+    private static void renderBlock(VoiceBank voiceBank, EngineMetrics metrics, double[] bus) {
+        long start = System.nanoTime();
+        voiceBank.mixVoices(bus, BLOCK_FRAMES);
+        metrics.recordBlock(start, System.nanoTime(), BLOCK_FRAMES, voiceBank.getActiveVoiceCount());
+    }
+}
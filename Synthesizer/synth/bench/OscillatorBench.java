@@ -0,0 +1,53 @@
+package synth.bench;
+
+import synth.Oscillator;
+import synth.Synth;
+
+/**
+ * Times every {@link Oscillator.Mode} per waveform and unison count, and reports
+ * ns/sample plus the cost relative to the naive DIRECT generator.
+ *
+ * Run with: java synth.bench.OscillatorBench [blocks]
+ */
+public class OscillatorBench {
+    private static final int[] UNISON = {1, 8};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final double FREQ = 1567.98; // G6, where aliasing is audible
+
+    public static void main(String[] args) {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        double[] buffer = new double[Synth.BUFFER_SIZE];
+
+        System.out.printf("%-9s %-7s %-12s %10s %10s%n", "waveform", "unison", "mode", "ns/sample", "vs DIRECT");
+        for (Synth.Waveform waveform : Synth.Waveform.values()) {
+            for (int unison : UNISON) {
+                double direct = 0.0;
+                for (Oscillator.Mode mode : Oscillator.Mode.values()) {
+                    Oscillator osc = new Oscillator(FREQ, waveform, mode);
+                    double ns = measure(osc, buffer, blocks, unison);
+                    if (mode == Oscillator.Mode.DIRECT) {
+                        direct = ns;
+                    }
+                    System.out.printf("%-9s %-7d %-12s %10.2f %9.2fx%n", waveform, unison, mode, ns, ns / direct);
+                }
+            }
+        }
+    }
+
+    /** Best-of-rounds time per generated sample, after warm-up rounds. */
+    private static double measure(Oscillator osc, double[] buffer, int blocks, int unison) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURE_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int b = 0; b < blocks; b++) {
+                osc.render(buffer, 0, buffer.length, FREQ, 1f, unison, 0.3);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed / (double) ((long) blocks * buffer.length * unison));
+            }
+        }
+        return best;
+    }
+}
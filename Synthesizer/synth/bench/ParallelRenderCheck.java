@@ -0,0 +1,87 @@
+package synth.bench;
+
+import synth.ParameterStore;
+import synth.ParameterStore.Param;
+import synth.Synth;
+import synth.VoiceBank;
+
+/**
+ * Plays the same timestamped note script through a single-threaded and a parallel
+ * {@link VoiceBank}, checks the outputs are bit-identical, and reports the time per
+ * block of each. Exits non-zero on any mismatch.
+ *
+ * Run with: java synth.bench.ParallelRenderCheck [threads] [blocks]
+ */
+public class ParallelRenderCheck {
+    private static final int BLOCK_FRAMES = 512;
+    private static final int MAX_VOICES = 32;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int threads = args.length > 0 ? Integer.parseInt(args[0])
+                                      : Math.max(2, Runtime.getRuntime().availableProcessors());
+        int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        VoiceBank serial = newBank();
+        VoiceBank parallel = newBank();
+        parallel.setRenderThreads(threads);
+
+        double[] serialBus = new double[Synth.BUFFER_SIZE];
+        double[] parallelBus = new double[Synth.BUFFER_SIZE];
+        long serialNanos = 0;
+        long parallelNanos = 0;
+        long mismatches = 0;
+
+        for (int b = 0; b < blocks; b++) {
+            // A new chord every 16 blocks, at odd offsets, overflowing the pool over time
+            if (b % 16 == 0) {
+                long frame = (long) b * BLOCK_FRAMES;
+                for (int n = 0; n < 6; n++) {
+                    double freq = 110.0 * Math.pow(2.0, ((b / 16 * 5 + n * 7) % 36) / 12.0);
+                    serial.noteOn(freq, frame + n * 37);
+                    parallel.noteOn(freq, frame + n * 37);
+                    serial.noteOff(freq, frame + 8 * BLOCK_FRAMES + n * 11);
+                    parallel.noteOff(freq, frame + 8 * BLOCK_FRAMES + n * 11);
+                }
+            }
+
+            long t0 = System.nanoTime();
+            serial.mixVoices(serialBus, BLOCK_FRAMES);
+            long t1 = System.nanoTime();
+            parallel.mixVoices(parallelBus, BLOCK_FRAMES);
+            long t2 = System.nanoTime();
+            serialNanos += t1 - t0;
+            parallelNanos += t2 - t1;
+
+            for (int i = 0; i < BLOCK_FRAMES; i++) {
+                if (Double.doubleToRawLongBits(serialBus[i]) != Double.doubleToRawLongBits(parallelBus[i])) {
+                    mismatches++;
+                }
+            }
+        }
+
+        System.out.printf("%d blocks of %d frames, up to %d voices%n", blocks, BLOCK_FRAMES, MAX_VOICES);
+        System.out.printf("single-threaded: %8.1f us/block%n", serialNanos / 1000.0 / blocks);
+        System.out.printf("%2d threads:      %8.1f us/block (%.2fx)%n",
+            threads, parallelNanos / 1000.0 / blocks, serialNanos / (double) parallelNanos);
+        if (mismatches > 0) {
+            System.err.println("FAIL: " + mismatches + " samples differ from single-threaded output");
+            System.exit(1);
+        }
+        System.out.println("OK: parallel output is bit-identical");
+        System.exit(0);
+    }
+
+    private static VoiceBank newBank() {
+        ParameterStore params = new ParameterStore();
+        params.set(Param.VOICES1, 16);
+        params.set(Param.VOICES2, 16);
+        params.set(Param.DETUNE1, 40);
+        params.set(Param.DETUNE2, 25);
+        params.set(Param.WAVEFORM1, Synth.Waveform.SAW.ordinal());
+        params.set(Param.WAVEFORM2, Synth.Waveform.SQUARE.ordinal());
+        params.set(Param.RELEASE, 30);
+        params.set(Param.FILTER_ENABLED, true);
+        return new VoiceBank(params, MAX_VOICES, VoiceBank.StealPolicy.OLDEST);
+    }
+}
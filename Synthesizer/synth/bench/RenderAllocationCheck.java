@@ -0,0 +1,100 @@
+package synth.bench;
+
+import java.lang.management.ManagementFactory;
+import synth.ParameterStore;
+import synth.ParameterStore.Param;
+import synth.Synth;
+import synth.VoiceBank;
+
+/**
+ * Headless check that steady-state rendering allocates nothing on the audio thread.
+ * Holds a chord, warms the JIT up, then measures the bytes this thread allocates
+ * across windows of blocks, and again across a burst of note-ons that overflows the
+ * voice pool and forces stealing. A one-off allocation while the JIT swaps tiers is
+ * reported but tolerated as long as a later full window comes in at zero; exits
+ * non-zero otherwise.
+ *
+ * Run with: java synth.bench.RenderAllocationCheck [blocksPerWindow]
+ */
+public class RenderAllocationCheck {
+    private static final int BLOCK_FRAMES = 512;
+    private static final int WARMUP_BLOCKS = 4_000;
+    private static final int MAX_WINDOWS = 5;
+    private static final double[] CHORD = {261.63, 329.63, 392.00, 493.88};
+    private static final int NOTE_BURST = 10_000;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static long tid;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        tid = Thread.currentThread().getId();
+
+        ParameterStore params = new ParameterStore();
+        VoiceBank voiceBank = new VoiceBank(params);
+
+        // Exercise the heavier paths: unison on both oscillators and the filter
+        params.set(Param.VOICES1, 8);
+        params.set(Param.VOICES2, 8);
+        params.set(Param.DETUNE1, 30);
+        params.set(Param.WAVEFORM2, Synth.Waveform.SAW.ordinal());
+        params.set(Param.FILTER_ENABLED, true);
+
+        for (double freq : CHORD) {
+            voiceBank.noteOn(freq);
+        }
+
+        double[] bus = new double[Synth.BUFFER_SIZE];
+        for (int i = 0; i < WARMUP_BLOCKS; i++) {
+            voiceBank.mixVoices(bus, BLOCK_FRAMES);
+        }
+
+        boolean renderClean = false;
+        for (int window = 1; window <= MAX_WINDOWS && !renderClean; window++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < blocks; i++) {
+                voiceBank.mixVoices(bus, BLOCK_FRAMES);
+            }
+            long allocated = allocatedBytes() - before;
+            System.out.printf("Window %d: rendered %d x %d-frame blocks with %d voices: %d bytes allocated%n",
+                window, blocks, BLOCK_FRAMES, CHORD.length, allocated);
+            renderClean = allocated == 0;
+        }
+
+        // Note churn: more distinct notes than the pool holds, so most note-ons steal
+        long noteAllocated = 0;
+        for (int round = 0; round < 2; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < NOTE_BURST; i++) {
+                double freq = 110.0 + (i % 97);
+                long frame = voiceBank.getSampleClock() + (i % 16) * 4;
+                voiceBank.noteOn(freq, frame);
+                if ((i & 1) == 0) {
+                    voiceBank.noteOff(freq, frame + 2);
+                }
+                // Drain often enough that the event queue never overflows
+                if (i % 16 == 15) {
+                    voiceBank.mixVoices(bus, BLOCK_FRAMES / 4);
+                }
+            }
+            voiceBank.mixVoices(bus, BLOCK_FRAMES);
+            noteAllocated = allocatedBytes() - before;
+        }
+        System.out.printf("Played %d timestamped note-ons into a %d-voice pool: %d bytes allocated, %d events dropped%n",
+            NOTE_BURST, voiceBank.getMaxVoices(), noteAllocated, voiceBank.getDroppedEventCount());
+
+        if (!renderClean || noteAllocated > 0) {
+            System.err.println("FAIL: render path allocates on the audio thread");
+            System.exit(1);
+        }
+        System.out.println("OK: render path is allocation-free");
+        System.exit(0);
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(tid);
+    }
+}
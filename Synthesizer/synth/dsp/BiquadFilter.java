@@ -1,121 +1,205 @@
 package synth.dsp;
 
+import synth.Synth;
+
+/**
+ * RBJ-cookbook biquad (lowpass, highpass, bandpass) processed a block at a time in
+ * transposed direct form II.
+ *
+ * {@link #update} only sets target coefficients. They come from a process-wide cache
+ * keyed on the filter type and the cutoff and Q quantized to 1/48 octave and 1/12
+ * octave, so voices sharing settings share one trigonometry computation, and a
+ * setting is computed at most once. {@link #process} then ramps the coefficients
+ * linearly from where the last block left them to the target, in steps of
+ * {@value #SUB_BLOCK} samples; inside each step the recursion runs with constant
+ * coefficients. Linear interpolation between two stable biquads stays stable, since
+ * the stability region of the denominator is convex.
+ */
 public class BiquadFilter {
     public enum Type { LOWPASS, HIGHPASS, BANDPASS }
 
-    private Type type;
-    private double a0, a1, a2, b1, b2;
-    private double z1 = 0, z2 = 0;
     private static final double MIN_Q = 0.1;
     private static final double MAX_Q = 10.0;
     private static final double MIN_FREQ = 20.0;
     private static final double MAX_FREQ = 20000.0;
-    
-    // Smoothing parameters
-    private static final double SMOOTHING_FACTOR = 0.0005; // Reduced from 0.002 for smoother transitions
-    private double targetA0, targetA1, targetA2, targetB1, targetB2;
-    private double currentA0, currentA1, currentA2, currentB1, currentB2;
+    private static final int SUB_BLOCK = 16;
+    private static final double DENORMAL = 1e-20;
+
+    // Quantization of the coefficient cache
+    private static final int FREQ_STEPS_PER_OCTAVE = 48;
+    private static final int Q_STEPS_PER_OCTAVE = 12;
+    private static final int FREQ_STEPS = quantize(MAX_FREQ / MIN_FREQ, FREQ_STEPS_PER_OCTAVE) + 1;
+    private static final int Q_STEPS = quantize(MAX_Q / MIN_Q, Q_STEPS_PER_OCTAVE) + 1;
+    private static final Type[] TYPES = Type.values();
+    private static final double CACHE_SAMPLE_RATE = Synth.SAMPLE_RATE;
+    private static final Coefficients[] CACHE = new Coefficients[TYPES.length * FREQ_STEPS * Q_STEPS];
+
+    // Numerator b0..b2 and normalized denominator a1, a2: the target, and what the last block ended on
+    private double targetB0, targetB1, targetB2, targetA1, targetA2;
+    private double b0, b1, b2, a1, a2;
+    private double s1, s2; // transposed direct form II state
 
     public BiquadFilter(Type type, double sampleRate, double freq, double q) {
-        this.type = type;
-        calculateCoefficients(sampleRate, freq, q);
-        // Initialize current coefficients to target values
-        currentA0 = targetA0 = a0;
-        currentA1 = targetA1 = a1;
-        currentA2 = targetA2 = a2;
-        currentB1 = targetB1 = b1;
-        currentB2 = targetB2 = b2;
+        update(type, sampleRate, freq, q);
+        reset();
     }
 
+    /**
+     * Sets the target response; the next {@link #process} call ramps to it. Settings
+     * are quantized for the cache at the synth's sample rate, and computed exactly at
+     * any other rate.
+     */
     public void update(Type type, double sampleRate, double freq, double q) {
-        this.type = type;
-        calculateCoefficients(sampleRate, freq, q);
-        // Update target coefficients
-        targetA0 = a0;
-        targetA1 = a1;
-        targetA2 = a2;
-        targetB1 = b1;
-        targetB2 = b2;
-    }
-
-    private void calculateCoefficients(double sr, double freq, double q) {
-        // Clamp frequency and Q to safe ranges
         freq = Math.max(MIN_FREQ, Math.min(MAX_FREQ, freq));
         q = Math.max(MIN_Q, Math.min(MAX_Q, q));
+        if (sampleRate != CACHE_SAMPLE_RATE) {
+            Coefficients c = new Coefficients(type, sampleRate, freq, q);
+            setTarget(c);
+            return;
+        }
+
+        int freqIndex = quantize(freq / MIN_FREQ, FREQ_STEPS_PER_OCTAVE);
+        int qIndex = quantize(q / MIN_Q, Q_STEPS_PER_OCTAVE);
+        int key = (type.ordinal() * FREQ_STEPS + freqIndex) * Q_STEPS + qIndex;
+        // Entries are immutable with final fields, so a racing read sees either null or
+        // a complete entry; two voices missing at once just compute the same values
+        Coefficients c = CACHE[key];
+        if (c == null) {
+            c = new Coefficients(type, CACHE_SAMPLE_RATE,
+                MIN_FREQ * Math.pow(2.0, freqIndex / (double) FREQ_STEPS_PER_OCTAVE),
+                MIN_Q * Math.pow(2.0, qIndex / (double) Q_STEPS_PER_OCTAVE));
+            CACHE[key] = c;
+        }
+        setTarget(c);
+    }
+
+    private static int quantize(double ratio, int stepsPerOctave) {
+        return (int) Math.round(Math.log(ratio) / Math.log(2.0) * stepsPerOctave);
+    }
 
-        double omega = 2 * Math.PI * freq / sr;
-        double sinw = Math.sin(omega);
-        double cosw = Math.cos(omega);
-        double alpha = sinw / (2 * q);
-
-        switch (type) {
-            case LOWPASS:
-                a0 = (1 - cosw) / 2;
-                a1 = 1 - cosw;
-                a2 = a0;
-                b1 = -2 * cosw;
-                b2 = 1 - alpha;
-                break;
-            case HIGHPASS:
-                a0 = (1 + cosw) / 2;
-                a1 = -(1 + cosw);
-                a2 = a0;
-                b1 = -2 * cosw;
-                b2 = 1 - alpha;
-                break;
-            case BANDPASS:
-                a0 = alpha;
-                a1 = 0;
-                a2 = -alpha;
-                b1 = -2 * cosw;
-                b2 = 1 - alpha;
-                break;
+    private void setTarget(Coefficients c) {
+        targetB0 = c.b0;
+        targetB1 = c.b1;
+        targetB2 = c.b2;
+        targetA1 = c.a1;
+        targetA2 = c.a2;
+    }
+
+    /**
+     * Filters {@code n} samples from {@code in} into {@code out}; the two may be the
+     * same array.
+     */
+    public void process(double[] in, double[] out, int n) {
+        int steps = (n + SUB_BLOCK - 1) / SUB_BLOCK;
+        boolean ramp = b0 != targetB0 || b1 != targetB1 || b2 != targetB2 || a1 != targetA1 || a2 != targetA2;
+        if (!ramp || steps <= 1) {
+            b0 = targetB0;
+            b1 = targetB1;
+            b2 = targetB2;
+            a1 = targetA1;
+            a2 = targetA2;
+            run(in, out, 0, n);
+        } else {
+            double db0 = (targetB0 - b0) / steps;
+            double db1 = (targetB1 - b1) / steps;
+            double db2 = (targetB2 - b2) / steps;
+            double da1 = (targetA1 - a1) / steps;
+            double da2 = (targetA2 - a2) / steps;
+            for (int start = 0; start < n; start += SUB_BLOCK) {
+                b0 += db0;
+                b1 += db1;
+                b2 += db2;
+                a1 += da1;
+                a2 += da2;
+                run(in, out, start, Math.min(n, start + SUB_BLOCK));
+            }
+            // Land exactly on the target
+            b0 = targetB0;
+            b1 = targetB1;
+            b2 = targetB2;
+            a1 = targetA1;
+            a2 = targetA2;
         }
 
-        // Normalize coefficients
-        double norm = 1 / (1 + alpha);
-        a0 *= norm;
-        a1 *= norm;
-        a2 *= norm;
-        b1 *= norm;
-        b2 *= norm;
-
-        // Simple stability check
-        if (Math.abs(b1) > 2.0 || Math.abs(b2) > 1.0) {
-            // If unstable, use safer coefficients
-            a0 = 1.0;
-            a1 = 0.0;
-            a2 = 0.0;
-            b1 = 0.0;
-            b2 = 0.0;
+        // Let a decaying tail reach zero instead of lingering in slow denormal arithmetic
+        if (Math.abs(s1) < DENORMAL) {
+            s1 = 0.0;
+        }
+        if (Math.abs(s2) < DENORMAL) {
+            s2 = 0.0;
         }
     }
 
-    public double process(double input) {
-        // Smoothly interpolate coefficients
-        currentA0 += (targetA0 - currentA0) * SMOOTHING_FACTOR;
-        currentA1 += (targetA1 - currentA1) * SMOOTHING_FACTOR;
-        currentA2 += (targetA2 - currentA2) * SMOOTHING_FACTOR;
-        currentB1 += (targetB1 - currentB1) * SMOOTHING_FACTOR;
-        currentB2 += (targetB2 - currentB2) * SMOOTHING_FACTOR;
-        
-        double output = currentA0 * input + currentA1 * z1 + currentA2 * z2 - currentB1 * z1 - currentB2 * z2;
-        
-        // Clamp output to prevent overflow
-        output = Math.max(-1.0, Math.min(1.0, output));
-        
-        z2 = z1;
-        z1 = output;
-        return output;
+    private void run(double[] in, double[] out, int from, int to) {
+        double c0 = b0, c1 = b1, c2 = b2, d1 = a1, d2 = a2;
+        double z1 = s1, z2 = s2;
+        for (int i = from; i < to; i++) {
+            double x = in[i];
+            double y = c0 * x + z1;
+            z1 = c1 * x - d1 * y + z2;
+            z2 = c2 * x - d2 * y;
+            out[i] = y;
+        }
+        s1 = z1;
+        s2 = z2;
     }
 
+    /** Clears the filter's memory and jumps straight to the target response. */
     public void reset() {
-        z1 = z2 = 0;
-        // Reset current coefficients to target values
-        currentA0 = targetA0;
-        currentA1 = targetA1;
-        currentA2 = targetA2;
-        currentB1 = targetB1;
-        currentB2 = targetB2;
+        s1 = s2 = 0;
+        b0 = targetB0;
+        b1 = targetB1;
+        b2 = targetB2;
+        a1 = targetA1;
+        a2 = targetA2;
+    }
+
+    /** One response, normalized so a0 = 1. */
+    private static final class Coefficients {
+        final double b0, b1, b2, a1, a2;
+
+        Coefficients(Type type, double sr, double freq, double q) {
+            double omega = 2 * Math.PI * freq / sr;
+            double sinw = Math.sin(omega);
+            double cosw = Math.cos(omega);
+            double alpha = sinw / (2 * q);
+
+            double n0, n1, n2;
+            switch (type) {
+                case HIGHPASS:
+                    n0 = (1 + cosw) / 2;
+                    n1 = -(1 + cosw);
+                    n2 = n0;
+                    break;
+                case BANDPASS:
+                    n0 = alpha;
+                    n1 = 0;
+                    n2 = -alpha;
+                    break;
+                default:
+                    n0 = (1 - cosw) / 2;
+                    n1 = 1 - cosw;
+                    n2 = n0;
+                    break;
+            }
+
+            // Normalize coefficients
+            double norm = 1 / (1 + alpha);
+            double d1 = -2 * cosw * norm;
+            double d2 = (1 - alpha) * norm;
+
+            // Simple stability check
+            if (Math.abs(d1) > 2.0 || Math.abs(d2) > 1.0) {
+                // If unstable, pass the signal through
+                b0 = 1.0;
+                b1 = b2 = a1 = a2 = 0.0;
+            } else {
+                b0 = n0 * norm;
+                b1 = n1 * norm;
+                b2 = n2 * norm;
+                a1 = d1;
+                a2 = d2;
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package synth.dsp;
+
+/**
+ * Levels of one block of output, measured on the unclamped bus while it is converted
+ * by {@link BufferOps#toPcm16(double[], byte[], int, BlockLevels)}. A reused, mutable
+ * result like {@code ParameterStore.Snapshot}: each conversion overwrites it.
+ */
+public final class BlockLevels {
+    double peak;
+    double sumOfSquares;
+    int clippedSamples;
+    int frames;
+
+    /** Highest absolute sample; above 1.0 means the block clipped. */
+    public double getPeak() {
+        return peak;
+    }
+
+    /** Root mean square over the block, 0 for an empty block. */
+    public double getRms() {
+        return frames == 0 ? 0.0 : Math.sqrt(sumOfSquares / frames);
+    }
+
+    /** Samples beyond full scale that the conversion clamped. */
+    public int getClippedSamples() {
+        return clippedSamples;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+}
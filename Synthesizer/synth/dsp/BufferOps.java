@@ -0,0 +1,112 @@
+package synth.dsp;
+
+/**
+ * Block kernels for the render path's element-wise loops: buffer add, scale,
+ * multiply-accumulate, clamp and conversion to 16-bit PCM.
+ *
+ * Two implementations exist. The scalar one is plain Java. The vectorized one uses
+ * the JDK's incubating Vector API ({@code jdk.incubator.vector}) at the platform's
+ * preferred width, e.g. four doubles per instruction on AVX2 and eight on AVX-512.
+ * Every kernel is an independent multiply and/or add per element, never a fused
+ * multiply-add or a reordered reduction, so both produce bit-identical output.
+ *
+ * The vectorized class lives in its own source root, {@code vector/}, since it needs
+ * {@code --add-modules jdk.incubator.vector} to compile; everything else builds
+ * without it. {@link #get()} picks the vectorized kernels when that class is on the
+ * classpath and the JVM was started with the same flag, and falls back to scalar
+ * otherwise. {@code -Dsynth.simd=false} forces the scalar path.
+ */
+public abstract class BufferOps {
+    private static final BufferOps SCALAR = new ScalarBufferOps();
+    private static final BufferOps VECTOR = loadVector();
+    private static final BufferOps ACTIVE =
+        VECTOR != null && !"false".equals(System.getProperty("synth.simd")) ? VECTOR : SCALAR;
+
+    BufferOps() {
+    }
+
+    /** The kernels selected for this JVM. */
+    public static BufferOps get() {
+        return ACTIVE;
+    }
+
+    public static BufferOps scalar() {
+        return SCALAR;
+    }
+
+    /** The Vector API kernels, or null if the incubator module isn't available. */
+    public static BufferOps vector() {
+        return VECTOR;
+    }
+
+    private static BufferOps loadVector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (BufferOps) Class.forName("synth.dsp.VectorBufferOps")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /** Short name for logs and benchmarks, e.g. "scalar" or "vector x4". */
+    public abstract String getName();
+
+    /** {@code dst[dstOff + i] += src[srcOff + i]} */
+    public abstract void add(double[] dst, int dstOff, double[] src, int srcOff, int length);
+
+    /** {@code buf[off + i] *= gain} */
+    public abstract void scale(double[] buf, int off, int length, double gain);
+
+    /** {@code dst[dstOff + i] += src[srcOff + i] * gain} */
+    public abstract void multiplyAdd(double[] dst, int dstOff, double[] src, int srcOff, int length, double gain);
+
+    /** Limits every sample to [{@code min}, {@code max}]. */
+    public abstract void clamp(double[] buf, int off, int length, double min, double max);
+
+    /**
+     * Converts {@code frames} samples to signed 16-bit little-endian PCM, clamping to
+     * full scale and truncating toward zero like a Java {@code (int)} cast. NaN becomes 0.
+     *
+     * Shared by both implementations: on JDK 17 the Vector API's double-to-int/short
+     * conversions aren't intrinsified and run several times slower than this loop,
+     * whose compare-based clamp also avoids {@code Math.min}'s NaN and signed-zero checks.
+     */
+    public void toPcm16(double[] src, byte[] out, int frames) {
+        for (int i = 0; i < frames; i++) {
+            double sample = src[i];
+            sample = sample > 1.0 ? 1.0 : (sample < -1.0 ? -1.0 : sample);
+            int pcm = (int) (sample * Short.MAX_VALUE);
+            out[i * 2] = (byte) pcm;
+            out[i * 2 + 1] = (byte) (pcm >> 8);
+        }
+    }
+
+    /**
+     * {@link #toPcm16(double[], byte[], int)} that also measures the block into
+     * {@code levels}: peak, sum of squares and clipped samples are accumulated in the
+     * same loop, so metering costs no extra pass over the bus.
+     */
+    public void toPcm16(double[] src, byte[] out, int frames, BlockLevels levels) {
+        double peak = 0.0;
+        double sumOfSquares = 0.0;
+        int clipped = 0;
+        for (int i = 0; i < frames; i++) {
+            double sample = src[i];
+            double magnitude = Math.abs(sample);
+            peak = magnitude > peak ? magnitude : peak;
+            sumOfSquares += sample * sample;
+            clipped += magnitude > 1.0 ? 1 : 0;
+            sample = sample > 1.0 ? 1.0 : (sample < -1.0 ? -1.0 : sample);
+            int pcm = (int) (sample * Short.MAX_VALUE);
+            out[i * 2] = (byte) pcm;
+            out[i * 2 + 1] = (byte) (pcm >> 8);
+        }
+        levels.peak = peak;
+        levels.sumOfSquares = sumOfSquares;
+        levels.clippedSamples = clipped;
+        levels.frames = frames;
+    }
+}
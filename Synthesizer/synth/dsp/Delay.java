@@ -0,0 +1,147 @@
+package synth.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Feedback delay for the master bus, processed in place a block at a time.
+ *
+ * The line is a preallocated ring whose length is a power of two, so every read and
+ * write wraps with a mask instead of a modulo or a branch, and nothing is allocated
+ * after construction. The read position is fractional and read with 4-point Hermite
+ * interpolation; when the time changes, the delay glides toward it with a one-pole
+ * slew of {@value #GLIDE_SECONDS} s rather than jumping, which would click. The glide
+ * speed is capped so a large jump bends the echoes' pitch like a tape delay instead of
+ * sweeping the read head through the line many times faster than it is written. The
+ * feedback path runs through a one-pole lowpass, so each repeat comes back darker.
+ */
+public class Delay {
+    private static final double GLIDE_SECONDS = 0.05;
+    private static final double MAX_GLIDE_RATE = 0.5; // samples of delay change per sample: at most an octave down
+    private static final double MAX_FEEDBACK = 0.95;
+    private static final double MAX_DAMPING = 0.95;
+    private static final double MIN_DELAY_SAMPLES = 2.0; // the newest written sample is one back
+    private static final double SILENCE = 1.5e-5;         // half a 16-bit output step
+    private static final double DENORMAL = 1e-20;
+
+    private final double sampleRate;
+    private final double[] buffer;
+    private final int mask;
+    private final double maxDelaySamples;
+    private final double glide;
+
+    private int writeIndex;
+    private double delaySamples;
+    private double targetSamples;
+    private double feedback;
+    private double damping;
+    private double mix;
+    private double dampState;
+    private int quietSamples; // samples written at or below SILENCE since the last louder one
+
+    /**
+     * @param maxDelaySeconds longest delay {@link #setTime} will reach; sizes the ring
+     */
+    public Delay(double sampleRate, double maxDelaySeconds) {
+        this.sampleRate = sampleRate;
+        int needed = (int) Math.ceil(maxDelaySeconds * sampleRate) + 4; // room for the interpolator's taps
+        int size = Integer.highestOneBit(Math.max(4, needed - 1)) << 1;
+        this.buffer = new double[size];
+        this.mask = size - 1;
+        this.maxDelaySamples = size - 4;
+        this.glide = 1.0 - Math.exp(-1.0 / (GLIDE_SECONDS * sampleRate));
+        this.quietSamples = size;
+    }
+
+    /** Delay time to glide to; the first call after {@link #reset} takes effect at once. */
+    public void setTime(double ms) {
+        double samples = ms * sampleRate / 1000.0;
+        targetSamples = Math.max(MIN_DELAY_SAMPLES, Math.min(maxDelaySamples, samples));
+    }
+
+    /** Portion of each repeat fed back, 0 to {@value #MAX_FEEDBACK}. */
+    public void setFeedback(double feedback) {
+        this.feedback = Math.max(0.0, Math.min(MAX_FEEDBACK, feedback));
+    }
+
+    /** Lowpass in the feedback path, 0 (none) to {@value #MAX_DAMPING}. */
+    public void setDamping(double damping) {
+        this.damping = Math.max(0.0, Math.min(MAX_DAMPING, damping));
+    }
+
+    /** Wet/dry balance: 0 is dry only, 1 is echoes only. */
+    public void setMix(double mix) {
+        this.mix = Math.max(0.0, Math.min(1.0, mix));
+    }
+
+    /** Length of the ring in samples, a power of two. */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * True while echoes may still be audible: something above half a 16-bit step went
+     * into the line within the last ring length.
+     */
+    public boolean isRinging() {
+        return quietSamples < buffer.length;
+    }
+
+    /** Empties the line and jumps straight to the next {@link #setTime}. */
+    public void reset() {
+        Arrays.fill(buffer, 0.0);
+        dampState = 0.0;
+        delaySamples = -1.0;
+        quietSamples = buffer.length;
+    }
+
+    /** Mixes echoes into {@code frames} samples of {@code bus}, in place. */
+    public void process(double[] bus, int frames) {
+        double[] line = buffer;
+        int m = mask;
+        int w = writeIndex;
+        double d = delaySamples < 0.0 ? targetSamples : delaySamples;
+        double target = targetSamples;
+        double g = glide;
+        double maxStep = MAX_GLIDE_RATE;
+        double fb = feedback;
+        double lowpass = 1.0 - damping;
+        double lp = dampState;
+        double wet = mix;
+        double dry = 1.0 - mix;
+        int lastLoud = -1;
+
+        for (int i = 0; i < frames; i++) {
+            d += Math.max(-maxStep, Math.min(maxStep, (target - d) * g));
+            int whole = (int) d;
+            double t = d - whole;
+
+            // Taps one newer than, at, and one and two older than the integer delay
+            int r = w - whole;
+            double ym1 = line[(r + 1) & m];
+            double y0 = line[r & m];
+            double y1 = line[(r - 1) & m];
+            double y2 = line[(r - 2) & m];
+            double c1 = 0.5 * (y1 - ym1);
+            double c2 = ym1 - 2.5 * y0 + 2.0 * y1 - 0.5 * y2;
+            double c3 = 0.5 * (y2 - ym1) + 1.5 * (y0 - y1);
+            double echo = ((c3 * t + c2) * t + c1) * t + y0;
+
+            lp += (echo - lp) * lowpass;
+            double x = bus[i];
+            double in = x + fb * lp;
+            if (Math.abs(in) > SILENCE) {
+                lastLoud = i;
+            } else if (Math.abs(in) < DENORMAL) {
+                in = 0.0; // let the tail reach zero instead of decaying through denormals
+            }
+            line[w & m] = in;
+            bus[i] = dry * x + wet * echo;
+            w++;
+        }
+
+        writeIndex = w;
+        delaySamples = d;
+        dampState = Math.abs(lp) < DENORMAL ? 0.0 : lp;
+        quietSamples = lastLoud >= 0 ? frames - 1 - lastLoud : Math.min(buffer.length, quietSamples + frames);
+    }
+}
@@ -0,0 +1,320 @@
+package synth.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Block-rendering ADSR envelope. {@link #render} fills a whole block per call and
+ * switches stages at their exact sample, so the per-sample work is one multiply-add
+ * with no stage branch.
+ *
+ * Every timed segment runs from its start level to its end level in exactly its
+ * length in samples, as {@code base + u} with {@code u = u * mult + add}. A
+ * {@link Curve#LINEAR} segment steps {@code u} by a constant; an
+ * {@link Curve#EXPONENTIAL} one multiplies it by {@code exp(-5 / length)}, the shape
+ * of {@code exp(-5t)} offset so it lands on the end level instead of approaching it,
+ * with one {@code exp} per segment rather than per sample.
+ *
+ * Note-on attacks from the current level and note-off releases from it, so retriggers
+ * and early releases are continuous. Segments are at least {@link #MIN_SEGMENT}
+ * samples long, which keeps zero-length attacks and releases from clicking.
+ */
+public final class EnvelopeGenerator {
+    /** Samples in the shortest attack, decay or release. */
+    public static final int MIN_SEGMENT = 64;
+    private static final double CURVATURE = 5.0;
+    private static final double CURVE_SPAN = 1.0 - Math.exp(-CURVATURE); // 1 - r^length
+
+    public enum Curve {
+        LINEAR,
+        EXPONENTIAL
+    }
+
+    public enum Stage {
+        IDLE,
+        ATTACK,
+        DECAY,
+        SUSTAIN,
+        RELEASE
+    }
+
+    private final Curve attackCurve;
+    private final Curve decayCurve;
+    private final Curve releaseCurve;
+
+    private int attackSamples = MIN_SEGMENT;
+    private int decaySamples = MIN_SEGMENT;
+    private int sustainSamples = -1;
+    private int releaseSamples = MIN_SEGMENT;
+    private double sustainLevel = 1.0;
+
+    private Stage stage = Stage.IDLE;
+    private double level;
+    private int remaining; // samples left in the current stage; unused while holding
+    private double end;    // level the current segment lands on
+    private double base;
+    private double u;
+    private double mult;
+    private double add;
+    // Last exponential step taken by advance(), which repeats the same run length
+    private double powBase = 1.0;
+    private int powRun = 0;
+    private double powValue = 1.0;
+
+    public EnvelopeGenerator(Curve attackCurve, Curve decayCurve, Curve releaseCurve) {
+        this.attackCurve = attackCurve;
+        this.decayCurve = decayCurve;
+        this.releaseCurve = releaseCurve;
+    }
+
+    /**
+     * Sets the stage lengths in samples and the sustain level, used from the next
+     * note-on or stage change.
+     *
+     * @param sustainSamples how long to sustain before releasing on its own, or a
+     *                       negative value to sustain until {@link #noteOff}
+     */
+    public void setTimes(int attackSamples, int decaySamples, int sustainSamples, int releaseSamples,
+                         double sustainLevel) {
+        this.attackSamples = Math.max(MIN_SEGMENT, attackSamples);
+        this.decaySamples = Math.max(MIN_SEGMENT, decaySamples);
+        this.sustainSamples = sustainSamples;
+        this.releaseSamples = Math.max(MIN_SEGMENT, releaseSamples);
+        this.sustainLevel = Math.max(0.0, Math.min(1.0, sustainLevel));
+    }
+
+    /** Starts the attack from the current level. */
+    public void noteOn() {
+        enter(Stage.ATTACK);
+    }
+
+    /** Starts the release from the current level; ignored once idle or releasing. */
+    public void noteOff() {
+        if (stage != Stage.IDLE && stage != Stage.RELEASE) {
+            enter(Stage.RELEASE);
+        }
+    }
+
+    /** Drops to silence immediately. */
+    public void reset() {
+        stage = Stage.IDLE;
+        level = 0.0;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /** True once the release has finished; a voice can stop rendering. */
+    public boolean isIdle() {
+        return stage == Stage.IDLE;
+    }
+
+    /** Level the next rendered sample starts from. */
+    public double getLevel() {
+        return level;
+    }
+
+    /**
+     * Writes the next {@code frames} envelope values to {@code out[offset...]}. Frames
+     * after the release finishes are written as 0.
+     *
+     * @return frames rendered before the envelope went idle; {@code frames} if it is
+     *         still running at the end of the block
+     */
+    public int render(double[] out, int offset, int frames) {
+        int pos = 0;
+        while (pos < frames) {
+            int run = frames - pos;
+            int start = offset + pos;
+            switch (stage) {
+                case IDLE:
+                    Arrays.fill(out, start, offset + frames, 0.0);
+                    return pos;
+                case SUSTAIN:
+                    if (sustainSamples >= 0) {
+                        run = Math.min(run, remaining);
+                    }
+                    Arrays.fill(out, start, start + run, sustainLevel);
+                    if (sustainSamples >= 0 && (remaining -= run) == 0) {
+                        enter(Stage.RELEASE);
+                    }
+                    break;
+                default:
+                    run = Math.min(run, remaining);
+                    double b = base;
+                    double x = u;
+                    double m = mult;
+                    double a = add;
+                    for (int i = start; i < start + run; i++) {
+                        out[i] = b + x;
+                        x = x * m + a;
+                    }
+                    u = x;
+                    level = b + x;
+                    if ((remaining -= run) == 0) {
+                        level = end; // land exactly, whatever rounding accumulated
+                        enter(next(stage));
+                    }
+                    break;
+            }
+            pos += run;
+        }
+        return frames;
+    }
+
+    /**
+     * Like {@link #render}, but writes {@code exp(scale * level)} for every sample, such
+     * as a cutoff multiplier for an envelope measured in octaves. Across a linear
+     * segment that is a geometric sequence, generated with one multiply per sample
+     * after one {@code exp} per run, and a hold costs one {@code exp} per run. An
+     * exponential segment needs an {@code exp} per sample, so envelopes meant for this
+     * should be linear. Frames after the release finishes are written as 1.
+     *
+     * @return as for {@link #render}
+     */
+    public int renderExp(double[] out, int offset, int frames, double scale) {
+        int pos = 0;
+        while (pos < frames) {
+            int run = frames - pos;
+            int start = offset + pos;
+            switch (stage) {
+                case IDLE:
+                    Arrays.fill(out, start, offset + frames, 1.0);
+                    return pos;
+                case SUSTAIN:
+                    if (sustainSamples >= 0) {
+                        run = Math.min(run, remaining);
+                    }
+                    Arrays.fill(out, start, start + run, Math.exp(scale * sustainLevel));
+                    if (sustainSamples >= 0 && (remaining -= run) == 0) {
+                        enter(Stage.RELEASE);
+                    }
+                    break;
+                default:
+                    run = Math.min(run, remaining);
+                    double b = base;
+                    double x = u;
+                    if (mult == 1.0) {
+                        double m = Math.exp(scale * (b + x));
+                        double r = Math.exp(scale * add);
+                        for (int i = start; i < start + run; i++) {
+                            out[i] = m;
+                            m *= r;
+                        }
+                        x += add * run;
+                    } else {
+                        for (int i = start; i < start + run; i++) {
+                            out[i] = Math.exp(scale * (b + x));
+                            x *= mult;
+                        }
+                    }
+                    u = x;
+                    level = b + x;
+                    if ((remaining -= run) == 0) {
+                        level = end;
+                        enter(next(stage));
+                    }
+                    break;
+            }
+            pos += run;
+        }
+        return frames;
+    }
+
+    /**
+     * Advances {@code frames} samples without writing them, for control-rate use such as
+     * a modulation envelope read every few dozen samples.
+     *
+     * @return the level after the last skipped sample
+     */
+    public double advance(int frames) {
+        int pos = 0;
+        while (pos < frames && stage != Stage.IDLE) {
+            int run = frames - pos;
+            if (stage == Stage.SUSTAIN) {
+                if (sustainSamples >= 0) {
+                    run = Math.min(run, remaining);
+                    if ((remaining -= run) == 0) {
+                        enter(Stage.RELEASE);
+                    }
+                }
+            } else {
+                run = Math.min(run, remaining);
+                // A segment is either linear (mult 1) or exponential (add 0)
+                if (mult == 1.0) {
+                    u += add * run;
+                } else {
+                    if (mult != powBase || run != powRun) {
+                        powBase = mult;
+                        powRun = run;
+                        powValue = Math.pow(mult, run);
+                    }
+                    u *= powValue;
+                }
+                level = base + u;
+                if ((remaining -= run) == 0) {
+                    level = end;
+                    enter(next(stage));
+                }
+            }
+            pos += run;
+        }
+        return level;
+    }
+
+    private static Stage next(Stage stage) {
+        switch (stage) {
+            case ATTACK:
+                return Stage.DECAY;
+            case DECAY:
+                return Stage.SUSTAIN;
+            default:
+                return Stage.IDLE;
+        }
+    }
+
+    private void enter(Stage next) {
+        stage = next;
+        switch (next) {
+            case ATTACK:
+                segment(1.0, attackSamples, attackCurve);
+                break;
+            case DECAY:
+                segment(sustainLevel, decaySamples, decayCurve);
+                break;
+            case SUSTAIN:
+                level = sustainLevel;
+                remaining = sustainSamples;
+                if (sustainSamples == 0) {
+                    enter(Stage.RELEASE);
+                }
+                break;
+            case RELEASE:
+                segment(0.0, releaseSamples, releaseCurve);
+                break;
+            default:
+                level = 0.0;
+                break;
+        }
+    }
+
+    /** Sets up {@code level -> target} over {@code length} samples. */
+    private void segment(double target, int length, Curve curve) {
+        remaining = length;
+        end = target;
+        if (curve == Curve.LINEAR) {
+            base = 0.0;
+            u = level;
+            mult = 1.0;
+            add = (target - level) / length;
+        } else {
+            // level(k) = base + span * r^k, with level(0) = current and level(length) = target
+            double r = Math.exp(-CURVATURE / length);
+            double span = (level - target) / CURVE_SPAN;
+            base = level - span;
+            u = span;
+            mult = r;
+            add = 0.0;
+        }
+    }
+}
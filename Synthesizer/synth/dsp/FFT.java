@@ -0,0 +1,194 @@
+package synth.dsp;
+
+/**
+ * Iterative in-place radix-2 FFT for one fixed size. The twiddle factors, bit-reversal
+ * permutations and Hann window are computed once in the constructor, so a transform
+ * makes no trigonometric calls and allocates nothing; callers own the work buffers.
+ *
+ * {@link #transform} is a complex forward FFT of {@code size} points.
+ * {@link #realForward} transforms {@code size} real samples by packing them into a
+ * {@code size/2}-point complex FFT and splitting the result, which is about twice as
+ * fast as transforming them with a zero imaginary part. {@link #realInverse} undoes
+ * it the same way, so a forward and inverse pair round-trips the samples.
+ */
+public final class FFT {
+    private final int size;
+    private final double[] cos; // cos(2 pi k / size), k = 0 .. size/2
+    private final double[] sin; // sin(2 pi k / size), k = 0 .. size/2
+    private final int[] reverse;     // bit-reversal permutation for size points
+    private final int[] halfReverse; // and for the size/2 points of the real transform
+    private final double[] window;
+
+    /**
+     * @param size transform length, a power of two of at least 4
+     */
+    public FFT(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + size);
+        }
+        this.size = size;
+        this.cos = new double[size / 2 + 1];
+        this.sin = new double[size / 2 + 1];
+        for (int k = 0; k <= size / 2; k++) {
+            cos[k] = Math.cos(2.0 * Math.PI * k / size);
+            sin[k] = Math.sin(2.0 * Math.PI * k / size);
+        }
+        this.reverse = bitReversal(size);
+        this.halfReverse = bitReversal(size / 2);
+
+        // Symmetric Hann, the window the spectrum view has always used
+        this.window = new double[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = 0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / (size - 1)));
+        }
+    }
+
+    private static int[] bitReversal(int n) {
+        int bits = Integer.numberOfTrailingZeros(n);
+        int[] table = new int[n];
+        for (int i = 0; i < n; i++) {
+            table[i] = Integer.reverse(i) >>> (Integer.SIZE - bits);
+        }
+        return table;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /** Multiplies the first {@link #getSize} samples of {@code data} by the Hann window. */
+    public void applyWindow(double[] data) {
+        for (int i = 0; i < size; i++) {
+            data[i] *= window[i];
+        }
+    }
+
+    /** In-place complex forward FFT of the first {@link #getSize} points of {@code re}/{@code im}. */
+    public void transform(double[] re, double[] im) {
+        fft(re, im, size, reverse);
+    }
+
+    /**
+     * Forward FFT of {@code size} real samples from {@code input}, which is left
+     * untouched. Bins 0 to size/2 inclusive (DC to Nyquist) are written to {@code re}
+     * and {@code im}, which need room for size/2 + 1 values; the remaining bins are the
+     * complex conjugates of these.
+     */
+    public void realForward(double[] input, double[] re, double[] im) {
+        int half = size / 2;
+        // Even samples as the real part, odd samples as the imaginary part
+        for (int k = 0; k < half; k++) {
+            re[k] = input[2 * k];
+            im[k] = input[2 * k + 1];
+        }
+        fft(re, im, half, halfReverse);
+
+        // Split Z into the spectra of the even and odd samples, E and O, and recombine:
+        // X[k] = E[k] + W^k O[k], working on k and half - k together so it stays in place
+        double zr0 = re[0];
+        double zi0 = im[0];
+        re[0] = zr0 + zi0;
+        im[0] = 0.0;
+        re[half] = zr0 - zi0;
+        im[half] = 0.0;
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            double ar = re[k];
+            double ai = im[k];
+            double br = re[j];
+            double bi = im[j];
+
+            double er = 0.5 * (ar + br);
+            double ei = 0.5 * (ai - bi);
+            double or = 0.5 * (ai + bi);
+            double oi = -0.5 * (ar - br);
+
+            // W^k = cos - i sin; for the mirrored bin W^(half - k) = -cos(k) - i sin(k)
+            double wr = cos[k];
+            double wi = -sin[k];
+            re[k] = er + (wr * or - wi * oi);
+            im[k] = ei + (wr * oi + wi * or);
+            re[j] = er - (wr * or - wi * oi);
+            im[j] = -ei + (wr * oi + wi * or);
+        }
+    }
+
+    /**
+     * Inverse of {@link #realForward}: rebuilds {@code size} real samples into
+     * {@code output} from bins 0 to size/2 in {@code re} and {@code im}, scaled by
+     * 1/size so the round trip is exact. {@code re} and {@code im} are used as work
+     * space and overwritten.
+     */
+    public void realInverse(double[] re, double[] im, double[] output) {
+        int half = size / 2;
+        // Undo the split: Z[k] = E[k] + i O[k], with E[k] = (X[k] + X*[half - k]) / 2 and
+        // O[k] = W^-k (X[k] - X*[half - k]) / 2; stored conjugated, for the inverse below
+        double x0 = re[0];
+        double xh = re[half];
+        re[0] = 0.5 * (x0 + xh);
+        im[0] = -0.5 * (x0 - xh);
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            double ar = re[k];
+            double ai = im[k];
+            double br = re[j];
+            double bi = im[j];
+
+            double er = 0.5 * (ar + br);
+            double ei = 0.5 * (ai - bi);
+            double dr = 0.5 * (ar - br); // W^k O[k]
+            double di = 0.5 * (ai + bi);
+
+            // W^-k = cos + i sin; for the mirrored bin the odd part is the conjugate mirror
+            double wr = cos[k];
+            double wi = sin[k];
+            double or = wr * dr - wi * di;
+            double oi = wr * di + wi * dr;
+            re[k] = er - oi;
+            im[k] = -(ei + or);
+            re[j] = er + oi;
+            im[j] = -(-ei + or);
+        }
+
+        // Inverse FFT as conj(FFT(conj(Z))) / half, then interleave real and imaginary parts
+        fft(re, im, half, halfReverse);
+        double scale = 1.0 / half;
+        for (int k = 0; k < half; k++) {
+            output[2 * k] = re[k] * scale;
+            output[2 * k + 1] = -im[k] * scale;
+        }
+    }
+
+    private void fft(double[] re, double[] im, int n, int[] rev) {
+        for (int i = 0; i < n; i++) {
+            int j = rev[i];
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+
+        for (int len = 2; len <= n; len <<= 1) {
+            int halfLen = len >> 1;
+            int step = size / len; // stride through the size-point twiddle table
+            for (int start = 0; start < n; start += len) {
+                for (int k = 0; k < halfLen; k++) {
+                    double wr = cos[k * step];
+                    double wi = -sin[k * step];
+                    int a = start + k;
+                    int b = a + halfLen;
+                    double tr = wr * re[b] - wi * im[b];
+                    double ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
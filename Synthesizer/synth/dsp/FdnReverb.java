@@ -0,0 +1,222 @@
+package synth.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Algorithmic reverb: an 8-line feedback delay network after Jot, processed in place
+ * on the master bus.
+ *
+ * Every line ends in a one-pole lowpass and a gain chosen from its length, so all
+ * lines decay at the same rate: the set decay time at low frequencies, and faster
+ * towards Nyquist as damping rises. The lines feed back through the Householder
+ * matrix {@code I - (2/N) 11^T}, which is orthogonal, so it mixes without adding or
+ * losing energy, and costs one sum and one multiply-add per line, O(N) rather than
+ * O(N^2). Lengths are mutually prime to spread the modes. The network adds its wet
+ * output on top of the dry bus, like a send.
+ *
+ * All lines share one contiguous array, one power-of-two region per line, indexed
+ * with a mask. The block is cut into chunks no longer than the shortest line. Within
+ * a chunk nothing that is written can be read back, so each step runs over the whole
+ * chunk: one array copy per line in and out of the ring, the mixing matrix and
+ * in/out taps as {@link BufferOps} kernels over time, and only the lowpass runs as a
+ * per-sample recursion. The work per sample is fixed, whatever the decay time.
+ */
+public class FdnReverb {
+    private static final int LINES = 8;
+    // Line lengths in samples at 44.1 kHz, primes from 23 ms to 68 ms
+    private static final int[] LENGTHS_44K = {1031, 1327, 1523, 1801, 2053, 2399, 2689, 3001};
+    // Input and output tap signs, so the lines start decorrelated and the sum doesn't cancel
+    private static final double[] INPUT_SIGNS = {1, 1, -1, -1, 1, 1, -1, -1};
+    private static final double[] OUTPUT_SIGNS = {1, -1, 1, -1, 1, -1, 1, -1};
+    private static final int CHUNK = 512;
+    private static final double MIN_DECAY_SECONDS = 0.1;
+    private static final double MAX_DAMPING = 0.7;
+    private static final double MAX_POLE = 0.9;
+    private static final double SILENCE = 1.5e-5; // half a 16-bit output step
+    private static final double DENORMAL = 1e-20;
+    private static final BufferOps OPS = BufferOps.get();
+
+    private final double sampleRate;
+    private final int[] lengths = new int[LINES];
+    private final int capacity; // per line, a power of two
+    private final int mask;
+    private final int chunk;
+    private final double[] lines;
+    private final double[] taps;
+    private final double[] sum;
+    private final double[] wet;
+
+    private final double[] gains = new double[LINES];
+    private final double[] poles = new double[LINES];
+    private final double[] lowpass = new double[LINES];
+    private double decaySeconds = -1.0;
+    private double damping = -1.0;
+    private double level;
+    private int writeIndex;
+    private int quietSamples;
+    private boolean cleared = true; // lines hold only zeros
+
+    public FdnReverb(double sampleRate) {
+        this.sampleRate = sampleRate;
+        int longest = 0;
+        int shortest = Integer.MAX_VALUE;
+        for (int i = 0; i < LINES; i++) {
+            lengths[i] = Math.max(1, (int) Math.round(LENGTHS_44K[i] * sampleRate / 44100.0));
+            longest = Math.max(longest, lengths[i]);
+            shortest = Math.min(shortest, lengths[i]);
+        }
+        this.capacity = Integer.highestOneBit(longest) << 1;
+        this.mask = capacity - 1;
+        this.chunk = Math.min(CHUNK, shortest);
+        this.lines = new double[LINES * capacity];
+        this.taps = new double[LINES * chunk];
+        this.sum = new double[chunk];
+        this.wet = new double[chunk];
+        this.quietSamples = capacity;
+        setDecay(2.0, 0.5);
+    }
+
+    /**
+     * Sets the time for the tail to fall by 60 dB at low frequencies, and how much
+     * sooner high frequencies die away: 0 decays evenly, 1 makes the decay time at
+     * Nyquist 0.3 of that. Cheap to call every block with unchanged values.
+     */
+    public void setDecay(double seconds, double damping) {
+        seconds = Math.max(MIN_DECAY_SECONDS, seconds);
+        damping = Math.max(0.0, Math.min(1.0, damping));
+        if (seconds == decaySeconds && damping == this.damping) {
+            return;
+        }
+        decaySeconds = seconds;
+        this.damping = damping;
+        // Decay time at Nyquist over that at DC
+        double ratio = 1.0 - MAX_DAMPING * damping;
+        for (int i = 0; i < LINES; i++) {
+            // -60 dB after `seconds`, spread over this line's trips
+            double dB = -60.0 * lengths[i] / (seconds * sampleRate);
+            gains[i] = Math.pow(10.0, dB / 20.0);
+            // Jot's one-pole for a per-line loss at Nyquist matching the shorter decay time
+            double pole = Math.log(10.0) / 80.0 * dB * (1.0 - 1.0 / (ratio * ratio));
+            poles[i] = Math.min(MAX_POLE, pole);
+        }
+    }
+
+    /** Wet signal added to the bus, 0 to 1. */
+    public void setLevel(double level) {
+        this.level = Math.max(0.0, Math.min(1.0, level));
+    }
+
+    /**
+     * True while the tail may still be audible: a line held something above half a
+     * 16-bit step within the last line length.
+     */
+    public boolean isRinging() {
+        return quietSamples < capacity;
+    }
+
+    public void reset() {
+        if (!cleared) {
+            Arrays.fill(lines, 0.0);
+            cleared = true;
+        }
+        Arrays.fill(lowpass, 0.0);
+        quietSamples = capacity;
+    }
+
+    /** Adds the reverb of {@code frames} samples of {@code bus} onto it, in place. */
+    public void process(double[] bus, int frames) {
+        for (int start = 0; start < frames; start += chunk) {
+            int n = Math.min(chunk, frames - start);
+            if (cleared && peak(bus, start, n) <= SILENCE) {
+                writeIndex += n; // nothing in the lines and nothing coming in
+                continue;
+            }
+            processChunk(bus, start, n);
+        }
+    }
+
+    private void processChunk(double[] bus, int offset, int n) {
+        double[] ring = lines;
+        double[] tap = taps;
+        int w = writeIndex;
+        double loudest = 0.0;
+
+        // Line outputs: each read runs n samples and can't reach what this chunk writes
+        for (int i = 0; i < LINES; i++) {
+            copyFromRing(ring, i * capacity, (w - lengths[i]) & mask, tap, i * chunk, n);
+        }
+
+        // Loss filter and gain, the only per-sample recursion; two lines at a time so
+        // their independent recursions overlap in the pipeline
+        for (int i = 0; i < LINES; i += 2) {
+            int t = i * chunk;
+            int u = t + chunk;
+            double pa = poles[i], pb = poles[i + 1];
+            double ba = gains[i] * (1.0 - pa), bb = gains[i + 1] * (1.0 - pb);
+            double za = lowpass[i], zb = lowpass[i + 1];
+            for (int k = 0; k < n; k++) {
+                za = ba * tap[t + k] + pa * za;
+                zb = bb * tap[u + k] + pb * zb;
+                tap[t + k] = za;
+                tap[u + k] = zb;
+                loudest = Math.max(loudest, Math.max(Math.abs(za), Math.abs(zb)));
+            }
+            lowpass[i] = Math.abs(za) < DENORMAL ? 0.0 : za;
+            lowpass[i + 1] = Math.abs(zb) < DENORMAL ? 0.0 : zb;
+        }
+
+        // Householder mix: line i is fed back as tap_i - (2/N) sum, plus the input
+        Arrays.fill(sum, 0, n, 0.0);
+        Arrays.fill(wet, 0, n, 0.0);
+        double outScale = 1.0 / Math.sqrt(LINES);
+        for (int i = 0; i < LINES; i++) {
+            OPS.add(sum, 0, tap, i * chunk, n);
+            OPS.multiplyAdd(wet, 0, tap, i * chunk, n, OUTPUT_SIGNS[i] * outScale);
+        }
+        double inScale = 1.0 / Math.sqrt(LINES);
+        for (int i = 0; i < LINES; i++) {
+            int t = i * chunk;
+            OPS.multiplyAdd(tap, t, sum, 0, n, -2.0 / LINES);
+            OPS.multiplyAdd(tap, t, bus, offset, n, INPUT_SIGNS[i] * inScale);
+            copyToRing(tap, t, ring, i * capacity, w & mask, n);
+        }
+        cleared = false;
+
+        double input = peak(bus, offset, n);
+        OPS.multiplyAdd(bus, offset, wet, 0, n, level);
+        writeIndex = w + n;
+
+        if (loudest > SILENCE || input > SILENCE) {
+            quietSamples = 0;
+        } else {
+            quietSamples += n;
+            if (quietSamples >= capacity) {
+                // The whole tail is below the output's resolution: drop it and idle until input returns
+                reset();
+            }
+        }
+    }
+
+    private void copyFromRing(double[] ring, int base, int from, double[] dst, int dstOff, int n) {
+        int first = Math.min(n, capacity - from);
+        System.arraycopy(ring, base + from, dst, dstOff, first);
+        System.arraycopy(ring, base, dst, dstOff + first, n - first);
+    }
+
+    private void copyToRing(double[] src, int srcOff, double[] ring, int base, int to, int n) {
+        int first = Math.min(n, capacity - to);
+        System.arraycopy(src, srcOff, ring, base + to, first);
+        System.arraycopy(src, srcOff + first, ring, base, n - first);
+    }
+
+    private static double peak(double[] buf, int off, int n) {
+        double max = 0.0;
+        for (int i = off; i < off + n; i++) {
+            double magnitude = Math.abs(buf[i]);
+            if (magnitude > max) {
+                max = magnitude;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,210 @@
+package synth.dsp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import synth.Synth;
+
+/**
+ * An impulse response prepared for {@link PartitionedConvolver}: the partition spectra
+ * it multiplies against, all computed when the response is built. Installing one in a
+ * convolver is a reference swap, with no FFT of the response on the audio thread.
+ *
+ * The first {@link PartitionedConvolver#HEAD_LENGTH} samples are cut into
+ * {@link PartitionedConvolver#HEAD_PARTITION}-sample partitions, the rest into
+ * {@link PartitionedConvolver#TAIL_PARTITION}-sample ones, each zero-padded to twice
+ * its length and transformed. Responses are summed to mono, resampled to the synth's
+ * rate, truncated to {@link #MAX_SECONDS} and normalized to unit energy, so a bright
+ * small room and a long hall come out at a similar loudness.
+ *
+ * Instances are immutable. {@link #load} caches the {@value #CACHE_SIZE} most recently
+ * used by file, so switching back to one of them reads nothing from disk and transforms
+ * nothing. A 10-second response's spectra take about 7 MB, so the cache stays small.
+ */
+public final class ImpulseResponse {
+    public static final double MAX_SECONDS = 10.0;
+    public static final int MAX_LENGTH = (int) (MAX_SECONDS * Synth.SAMPLE_RATE);
+
+    public static final int CACHE_SIZE = 4;
+
+    // Access order, so the eldest entry is the least recently used; guarded by itself
+    private static final Map<Path, Cached> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String name;
+    private final int length;
+    private final int headPartitions;
+    private final int tailPartitions;
+    // Partition spectra back to back, bins 0 to size/2 of each
+    final double[] headRe, headIm;
+    final double[] tailRe, tailIm;
+
+    private ImpulseResponse(String name, double[] samples) {
+        this.name = name;
+        this.length = samples.length;
+
+        int head = PartitionedConvolver.HEAD_PARTITION;
+        int tail = PartitionedConvolver.TAIL_PARTITION;
+        int headLength = Math.min(length, PartitionedConvolver.HEAD_LENGTH);
+        this.headPartitions = (headLength + head - 1) / head;
+        this.tailPartitions = Math.max(0, (length - PartitionedConvolver.HEAD_LENGTH + tail - 1) / tail);
+        this.headRe = new double[headPartitions * (head + 1)];
+        this.headIm = new double[headPartitions * (head + 1)];
+        this.tailRe = new double[tailPartitions * (tail + 1)];
+        this.tailIm = new double[tailPartitions * (tail + 1)];
+
+        transformPartitions(samples, 0, headPartitions, head, headRe, headIm);
+        transformPartitions(samples, PartitionedConvolver.HEAD_LENGTH, tailPartitions, tail, tailRe, tailIm);
+    }
+
+    private static void transformPartitions(double[] samples, int from, int count, int partition,
+                                            double[] re, double[] im) {
+        FFT fft = new FFT(2 * partition);
+        double[] block = new double[2 * partition];
+        double[] binsRe = new double[partition + 1];
+        double[] binsIm = new double[partition + 1];
+        for (int p = 0; p < count; p++) {
+            int start = from + p * partition;
+            int n = Math.min(partition, samples.length - start);
+            System.arraycopy(samples, start, block, 0, n);
+            Arrays.fill(block, n, 2 * partition, 0.0);
+            fft.realForward(block, binsRe, binsIm);
+            System.arraycopy(binsRe, 0, re, p * (partition + 1), partition + 1);
+            System.arraycopy(binsIm, 0, im, p * (partition + 1), partition + 1);
+        }
+    }
+
+    /**
+     * Prepares a response from mono samples at {@code sampleRate}; the array is not kept.
+     *
+     * @throws IllegalArgumentException if there are no samples or they are all silent
+     */
+    public static ImpulseResponse fromSamples(String name, double[] samples, double sampleRate) {
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("Impulse response is empty: " + name);
+        }
+        double[] resampled = resample(samples, sampleRate);
+        double energy = 0.0;
+        for (double s : resampled) {
+            energy += s * s;
+        }
+        if (energy == 0.0) {
+            throw new IllegalArgumentException("Impulse response is silent: " + name);
+        }
+        double gain = 1.0 / Math.sqrt(energy);
+        for (int i = 0; i < resampled.length; i++) {
+            resampled[i] *= gain;
+        }
+        return new ImpulseResponse(name, resampled);
+    }
+
+    /**
+     * Reads a WAV (or any format {@link AudioSystem} decodes to PCM) and prepares it,
+     * or returns the cached response if this file was loaded before and hasn't changed.
+     * Blocks on disk I/O and FFTs, so call it off the audio thread.
+     */
+    public static ImpulseResponse load(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        Cached cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+        }
+        if (cached != null && cached.modified == modified) {
+            return cached.response;
+        }
+
+        ImpulseResponse response;
+        try (AudioInputStream audio = AudioSystem.getAudioInputStream(key.toFile())) {
+            AudioFormat source = audio.getFormat();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, source.getSampleRate(),
+                16, source.getChannels(), source.getChannels() * 2, source.getSampleRate(), false);
+            try (AudioInputStream decoded = AudioSystem.getAudioInputStream(pcm, audio)) {
+                response = fromSamples(key.getFileName().toString(),
+                    readMono(decoded, source.getChannels(), source.getSampleRate()), source.getSampleRate());
+            }
+        } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+            throw new IOException("Can't read impulse response " + key + ": " + e.getMessage(), e);
+        }
+        synchronized (CACHE) {
+            CACHE.put(key, new Cached(modified, response));
+        }
+        return response;
+    }
+
+    /** 16-bit little-endian frames, channels averaged, stopping at {@link #MAX_SECONDS}. */
+    private static double[] readMono(AudioInputStream in, int channels, double sampleRate) throws IOException {
+        int frameBytes = channels * 2;
+        int maxFrames = (int) Math.ceil(MAX_SECONDS * sampleRate);
+        byte[] bytes = in.readNBytes(maxFrames * frameBytes);
+        double[] samples = new double[bytes.length / frameBytes];
+        for (int f = 0; f < samples.length; f++) {
+            double sum = 0.0;
+            for (int c = 0; c < channels; c++) {
+                int at = f * frameBytes + c * 2;
+                sum += (short) ((bytes[at] & 0xff) | (bytes[at + 1] << 8));
+            }
+            samples[f] = sum / (channels * 32768.0);
+        }
+        return samples;
+    }
+
+    /** Linear-interpolation resampling to the synth's rate; a no-op when the rates match. */
+    private static double[] resample(double[] samples, double sampleRate) {
+        if (sampleRate == Synth.SAMPLE_RATE) {
+            return Arrays.copyOf(samples, Math.min(samples.length, MAX_LENGTH));
+        }
+        double step = sampleRate / Synth.SAMPLE_RATE;
+        int length = (int) Math.min(MAX_LENGTH, Math.floor((samples.length - 1) / step) + 1);
+        double[] out = new double[length];
+        for (int i = 0; i < length; i++) {
+            double pos = i * step;
+            int at = (int) pos;
+            double frac = pos - at;
+            double next = at + 1 < samples.length ? samples[at + 1] : 0.0;
+            out[i] = samples[at] + (next - samples[at]) * frac;
+        }
+        return out;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Length in samples at the synth's rate. */
+    public int getLength() {
+        return length;
+    }
+
+    int getHeadPartitions() {
+        return headPartitions;
+    }
+
+    int getTailPartitions() {
+        return tailPartitions;
+    }
+
+    private static final class Cached {
+        final long modified;
+        final ImpulseResponse response;
+
+        Cached(long modified, ImpulseResponse response) {
+            this.modified = modified;
+            this.response = response;
+        }
+    }
+}
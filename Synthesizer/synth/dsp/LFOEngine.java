@@ -9,6 +9,7 @@ public class LFOEngine {
     private static final double SMOOTHING = 0.99;
     private static final double TWO_PI = 2.0 * Math.PI;
     private boolean isEnabled = false;
+    private static final double MAX_RATE_HZ = 20.0; // the LFO rate sliders top out at 20 Hz
 
     public LFOEngine() {
     }
@@ -50,6 +51,27 @@ public class LFOEngine {
         return smoothed;
     }
 
+    /**
+     * Control-rate form for the modulation matrix: advances the phase by
+     * {@code samples} at {@code rateHz} and returns the sine there, in [-1, 1]. Unlike
+     * {@link #nextSample} it ignores the enabled flag and applies no depth or smoothing;
+     * the caller interpolates between successive values, so one {@code Math.sin} serves
+     * a whole control period.
+     */
+    public double advance(double rateHz, int samples) {
+        rateHz = Math.max(0.0, Math.min(rateHz, MAX_RATE_HZ));
+        phase += TWO_PI * rateHz * samples / SAMPLE_RATE;
+        if (phase >= TWO_PI) {
+            phase -= TWO_PI * Math.floor(phase / TWO_PI);
+        }
+        return Math.sin(phase);
+    }
+
+    /** Sine at the current phase, as last returned by {@link #advance}. */
+    public double getValue() {
+        return Math.sin(phase);
+    }
+
     public void reset() {
         phase = 0.0;
         prevSample = 0.0;
@@ -0,0 +1,446 @@
+package synth.dsp;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Real-time convolution with an {@link ImpulseResponse} several seconds long, by
+ * non-uniformly partitioned overlap-save after Gardner and Garcia.
+ *
+ * The response is split in two. The head, its first {@value #HEAD_LENGTH} samples,
+ * is convolved on the calling (audio) thread in {@value #HEAD_PARTITION}-sample
+ * partitions: every {@value #HEAD_PARTITION} samples of input are transformed once,
+ * kept in a frequency-domain delay line, and multiplied against each head partition's
+ * spectrum, with one inverse transform per partition of output. The output lags the
+ * input by exactly one head partition.
+ *
+ * The rest is convolved the same way in {@value #TAIL_PARTITION}-sample partitions on
+ * a background thread. A tail block is queued as soon as its input is complete, and
+ * its result is first needed {@value #TAIL_PARTITION} samples later, since the tail
+ * starts two tail partitions into the response. So the worker has a whole tail
+ * partition of time for each job. If it overruns, the audio thread waits at most
+ * {@value #MAX_WAIT_NANOS} ns and then plays that tail partition as silence; the
+ * worker catches up from its queue. {@link #getLateCount} counts overruns. An offline
+ * render calls {@link #setRealTime setRealTime(false)} to wait as long as it takes,
+ * so the output is the same whatever the thread timing.
+ *
+ * All buffers are allocated in the constructor, sized for {@link ImpulseResponse#MAX_LENGTH}.
+ * Responses arrive with their partition spectra precomputed, so switching one in is a
+ * reference swap, picked up at the next tail partition boundary. The old response
+ * keeps playing, head and tail, until the tail partitions already queued for it have
+ * been heard; then the two are crossfaded over one tail partition, the worker
+ * convolving that one tail block with both. Nothing is heard mixing the head of one
+ * response with the tail of the other, and there is no step in the output.
+ */
+public class PartitionedConvolver {
+    public static final int HEAD_PARTITION = 256;
+    public static final int TAIL_PARTITION = 2048;
+    public static final int HEAD_LENGTH = 2 * TAIL_PARTITION;
+
+    private static final int HEAD_BINS = HEAD_PARTITION + 1;
+    private static final int TAIL_BINS = TAIL_PARTITION + 1;
+    private static final int HEAD_SLOTS = HEAD_LENGTH / HEAD_PARTITION;
+    private static final int TAIL_SLOTS =
+        (ImpulseResponse.MAX_LENGTH - HEAD_LENGTH + TAIL_PARTITION - 1) / TAIL_PARTITION;
+    // A result is read for one tail partition while the next is computed; a third slot
+    // covers the head partition of overlap between the two
+    private static final int RESULT_SLOTS = 3;
+    private static final int JOB_SLOTS = 3; // how far the worker can fall behind before input is dropped
+    private static final long MAX_WAIT_NANOS = 1_000_000; // a small fraction of an audio block
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 20_000 : 0;
+    private static final double SILENCE = 1.5e-5; // half a 16-bit output step
+    private static final BufferOps OPS = BufferOps.get();
+
+    // Audio thread: head convolution
+    private final FFT headFft = new FFT(2 * HEAD_PARTITION);
+    private final double[] headWindow = new double[2 * HEAD_PARTITION]; // previous and current input partition
+    private final double[] headSpectraRe = new double[HEAD_SLOTS * HEAD_BINS];
+    private final double[] headSpectraIm = new double[HEAD_SLOTS * HEAD_BINS];
+    private final double[] headAccRe = new double[HEAD_BINS];
+    private final double[] headAccIm = new double[HEAD_BINS];
+    private final double[] headBlock = new double[2 * HEAD_PARTITION];
+    private final double[] output = new double[HEAD_PARTITION]; // played over the next partition
+    private final double[] fadeOutput = new double[HEAD_PARTITION]; // the incoming response's, while crossfading
+    private int headSlot;
+    private int fill;
+    private long clock; // samples consumed at the last partition boundary
+
+    // Audio thread: tail input, and results coming back
+    private final double[] tailInput = new double[TAIL_PARTITION];
+    private final double[][] tailResults = new double[RESULT_SLOTS][TAIL_PARTITION];
+    private final long[] resultJobs = new long[RESULT_SLOTS]; // job writing each slot, -1 for silence
+    private final double[] fadeResult = new double[TAIL_PARTITION]; // the outgoing response's tail while crossfading
+    private boolean resetPending;
+
+    private final AtomicReference<ImpulseResponse> pending = new AtomicReference<>();
+    private volatile ImpulseResponse response;
+    private volatile ImpulseResponse fadeTo; // the incoming response during a switch, else null
+    private long fadeClock; // where the crossfade starts, one tail partition long
+    private double level;
+    private volatile long maxWaitNanos = MAX_WAIT_NANOS;
+    private long quietSamples = Long.MAX_VALUE / 2;
+    private long lateCount;
+
+    // Hand-off to the worker, a ring of jobs: each job's fields are written before submitted is bumped
+    private final double[][] jobInputs = new double[JOB_SLOTS][TAIL_PARTITION];
+    private final ImpulseResponse[] jobResponses = new ImpulseResponse[JOB_SLOTS];
+    private final ImpulseResponse[] jobFadeFrom = new ImpulseResponse[JOB_SLOTS]; // also into fadeResult, or null
+    private final int[] jobResultSlots = new int[JOB_SLOTS];
+    private final boolean[] jobResets = new boolean[JOB_SLOTS];
+    private volatile long submitted;
+    private volatile long completed;
+    private volatile boolean running = true;
+    private final Worker worker = new Worker();
+
+    public PartitionedConvolver() {
+        Arrays.fill(resultJobs, -1);
+        worker.start();
+    }
+
+    /**
+     * Switches to {@code response}, crossfading from the current one over a tail
+     * partition that starts within three tail partitions; callable from any thread.
+     */
+    public void setImpulseResponse(ImpulseResponse response) {
+        pending.set(response);
+    }
+
+    /** The response in use, or the one about to be if a switch is pending or under way. */
+    public ImpulseResponse getImpulseResponse() {
+        ImpulseResponse next = pending.get();
+        if (next == null) {
+            next = fadeTo;
+        }
+        return next != null ? next : response;
+    }
+
+    /** Wet signal added to the bus, 0 to 1. */
+    public void setLevel(double level) {
+        this.level = Math.max(0.0, Math.min(1.0, level));
+    }
+
+    /**
+     * Stops the tail worker once it finishes its current job. Call when the convolver
+     * is done with; it must not be used afterwards.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    /** Output latency in samples: one head partition. */
+    public int getLatency() {
+        return HEAD_PARTITION;
+    }
+
+    /**
+     * False to wait for the worker however long it takes, as an offline render must;
+     * true, the default, to wait at most {@value #MAX_WAIT_NANOS} ns and play silence.
+     */
+    public void setRealTime(boolean realTime) {
+        maxWaitNanos = realTime ? MAX_WAIT_NANOS : Long.MAX_VALUE;
+    }
+
+    /**
+     * Tail partitions the worker hadn't finished when the audio thread needed them,
+     * counting input blocks dropped because its queue was full. In real time each is
+     * heard as a tail partition of silence.
+     */
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    /** True while input above half a 16-bit step went in within the response's length. */
+    public boolean isRinging() {
+        ImpulseResponse current = getImpulseResponse();
+        return current != null && quietSamples < current.getLength() + HEAD_PARTITION;
+    }
+
+    /**
+     * Forgets all input history without waiting for the worker: the audio thread clears
+     * its own buffers, and the worker clears its history when it starts the next job.
+     */
+    public void reset() {
+        Arrays.fill(headWindow, 0.0);
+        Arrays.fill(headSpectraRe, 0.0);
+        Arrays.fill(headSpectraIm, 0.0);
+        Arrays.fill(output, 0.0);
+        Arrays.fill(tailInput, 0.0);
+        Arrays.fill(resultJobs, -1); // results still being written for the old input aren't played
+        if (fadeTo != null) {
+            response = fadeTo; // with no history there is nothing to fade out
+            fadeTo = null;
+        }
+        fill = 0;
+        clock = 0;
+        quietSamples = Long.MAX_VALUE / 2;
+        resetPending = true;
+    }
+
+    /**
+     * Adds the convolution of {@code frames} samples of {@code bus} onto it, in place.
+     * The wet signal lags by {@link #getLatency} samples.
+     */
+    public void process(double[] bus, int frames) {
+        int pos = 0;
+        while (pos < frames) {
+            int n = Math.min(HEAD_PARTITION - fill, frames - pos);
+            System.arraycopy(bus, pos, headWindow, HEAD_PARTITION + fill, n);
+            OPS.multiplyAdd(bus, pos, output, fill, n, level);
+            fill += n;
+            pos += n;
+            if (fill == HEAD_PARTITION) {
+                partition();
+                fill = 0;
+            }
+        }
+    }
+
+    /** A head partition of input is complete: compute the next partition of output. */
+    private void partition() {
+        if (clock % TAIL_PARTITION == 0) {
+            if (fadeTo != null && clock >= fadeClock + TAIL_PARTITION) {
+                response = fadeTo;
+                fadeTo = null;
+            }
+            ImpulseResponse next = fadeTo == null ? pending.getAndSet(null) : null;
+            if (next != null && response == null) {
+                response = next; // nothing to fade from
+            } else if (next != null) {
+                // Fade once the tail partitions already queued with the old response have played
+                fadeClock = clock + HEAD_LENGTH;
+                fadeTo = next;
+            }
+        }
+        ImpulseResponse ir = response;
+        ImpulseResponse incoming = fadeTo;
+        boolean fading = incoming != null && clock >= fadeClock;
+
+        double[] input = headWindow;
+        double loudest = 0.0;
+        for (int i = HEAD_PARTITION; i < 2 * HEAD_PARTITION; i++) {
+            loudest = Math.max(loudest, Math.abs(input[i]));
+        }
+        quietSamples = loudest > SILENCE ? 0 : quietSamples + HEAD_PARTITION;
+
+        // Head: transform the newest two partitions, then multiply-accumulate down the delay line
+        int at = headSlot * HEAD_BINS;
+        headFft.realForward(input, headAccRe, headAccIm);
+        System.arraycopy(headAccRe, 0, headSpectraRe, at, HEAD_BINS);
+        System.arraycopy(headAccIm, 0, headSpectraIm, at, HEAD_BINS);
+        convolveHead(ir, output);
+        if (fading) {
+            convolveHead(incoming, fadeOutput);
+        }
+        headSlot = headSlot + 1 == HEAD_SLOTS ? 0 : headSlot + 1;
+
+        // Tail: collect input, and hand each complete tail partition to the worker
+        int offset = (int) (clock % TAIL_PARTITION);
+        System.arraycopy(input, HEAD_PARTITION, tailInput, offset, HEAD_PARTITION);
+        long tailOut = clock - HEAD_LENGTH; // tail output sample that lines up with this partition
+        long fadePos = clock - fadeClock;
+        clock += HEAD_PARTITION;
+        if (clock % TAIL_PARTITION == 0) {
+            // The block heard during the crossfade is convolved with both responses
+            boolean fadeBlock = incoming != null && clock == fadeClock - TAIL_PARTITION;
+            submit(clock / TAIL_PARTITION - 1, incoming != null ? incoming : ir, fadeBlock ? ir : null);
+        }
+        if (tailOut >= 0) {
+            int resultSlot = (int) ((tailOut / TAIL_PARTITION) % RESULT_SLOTS);
+            if (tailOut % TAIL_PARTITION == 0 && !awaitResult(resultSlot)) {
+                lateCount++;
+                resultJobs[resultSlot] = -1; // overran: this tail partition plays as silence
+            }
+            if (resultJobs[resultSlot] >= 0) {
+                int from = (int) (tailOut % TAIL_PARTITION);
+                if (fading) {
+                    OPS.add(output, 0, fadeResult, from, HEAD_PARTITION);
+                    OPS.add(fadeOutput, 0, tailResults[resultSlot], from, HEAD_PARTITION);
+                } else {
+                    OPS.add(output, 0, tailResults[resultSlot], from, HEAD_PARTITION);
+                }
+            }
+        }
+        if (fading) {
+            double step = 1.0 / TAIL_PARTITION;
+            double gain = (fadePos + 1) * step;
+            for (int i = 0; i < HEAD_PARTITION; i++) {
+                output[i] += (fadeOutput[i] - output[i]) * gain;
+                gain += step;
+            }
+        }
+
+        System.arraycopy(input, HEAD_PARTITION, input, 0, HEAD_PARTITION);
+    }
+
+    /** Convolves the head delay line with {@code ir} into the next partition of {@code out}. */
+    private void convolveHead(ImpulseResponse ir, double[] out) {
+        Arrays.fill(headAccRe, 0.0);
+        Arrays.fill(headAccIm, 0.0);
+        int parts = ir != null ? ir.getHeadPartitions() : 0;
+        for (int p = 0; p < parts; p++) {
+            int slot = headSlot - p;
+            if (slot < 0) {
+                slot += HEAD_SLOTS;
+            }
+            multiplyAccumulate(headSpectraRe, headSpectraIm, slot * HEAD_BINS,
+                ir.headRe, ir.headIm, p * HEAD_BINS, headAccRe, headAccIm, HEAD_BINS);
+        }
+        headFft.realInverse(headAccRe, headAccIm, headBlock);
+        System.arraycopy(headBlock, HEAD_PARTITION, out, 0, HEAD_PARTITION);
+    }
+
+    private void submit(long block, ImpulseResponse ir, ImpulseResponse fadeFrom) {
+        int resultSlot = (int) (block % RESULT_SLOTS);
+        long job = submitted;
+        if (!awaitCompleted(job - JOB_SLOTS + 1)) {
+            // The queue is full: drop this block, and have the worker start afresh rather
+            // than line up later input against history with a gap in it
+            lateCount++;
+            resultJobs[resultSlot] = -1;
+            resetPending = true;
+            return;
+        }
+        int at = (int) (job % JOB_SLOTS);
+        System.arraycopy(tailInput, 0, jobInputs[at], 0, TAIL_PARTITION);
+        jobResponses[at] = ir;
+        jobFadeFrom[at] = fadeFrom;
+        jobResultSlots[at] = resultSlot;
+        jobResets[at] = resetPending;
+        resetPending = false;
+        resultJobs[resultSlot] = job;
+        submitted = job + 1; // publishes the job fields above
+        if (worker.parked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /** Waits, within the bound, for the job writing {@code resultSlot}; true if its result is ready. */
+    private boolean awaitResult(int resultSlot) {
+        long job = resultJobs[resultSlot];
+        return job < 0 || awaitCompleted(job + 1);
+    }
+
+    /** Waits until the worker has completed {@code jobs} jobs, for at most the wait bound. */
+    private boolean awaitCompleted(long jobs) {
+        if (completed >= jobs) {
+            return true;
+        }
+        long start = System.nanoTime();
+        int spins = 0;
+        while (completed < jobs) {
+            if (System.nanoTime() - start >= maxWaitNanos) {
+                return false;
+            }
+            if (++spins < SPIN_LIMIT) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    /** {@code acc += x * h} over {@code bins} complex bins. */
+    private static void multiplyAccumulate(double[] xRe, double[] xIm, int xOff, double[] hRe, double[] hIm, int hOff,
+                                           double[] accRe, double[] accIm, int bins) {
+        for (int b = 0; b < bins; b++) {
+            double xr = xRe[xOff + b];
+            double xi = xIm[xOff + b];
+            double hr = hRe[hOff + b];
+            double hi = hIm[hOff + b];
+            accRe[b] += xr * hr - xi * hi;
+            accIm[b] += xr * hi + xi * hr;
+        }
+    }
+
+    /** Convolves tail partitions in order; all its buffers are its own apart from the job ring. */
+    private final class Worker extends Thread {
+        private final FFT fft = new FFT(2 * TAIL_PARTITION);
+        private final double[] window = new double[2 * TAIL_PARTITION];
+        private final double[] spectraRe = new double[TAIL_SLOTS * TAIL_BINS];
+        private final double[] spectraIm = new double[TAIL_SLOTS * TAIL_BINS];
+        private final double[] accRe = new double[TAIL_BINS];
+        private final double[] accIm = new double[TAIL_BINS];
+        private final double[] block = new double[2 * TAIL_PARTITION];
+        private int slot;
+        volatile boolean parked;
+
+        Worker() {
+            super("synth-convolver");
+            setDaemon(true);
+            setPriority(Thread.MAX_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            long done = 0;
+            while (running) {
+                if (submitted == done) {
+                    waitForWork(done);
+                    continue;
+                }
+                convolve((int) (done % JOB_SLOTS));
+                done++;
+                completed = done;
+            }
+        }
+
+        private void convolve(int job) {
+            if (jobResets[job]) {
+                Arrays.fill(window, 0.0);
+                Arrays.fill(spectraRe, 0.0);
+                Arrays.fill(spectraIm, 0.0);
+            }
+            System.arraycopy(jobInputs[job], 0, window, TAIL_PARTITION, TAIL_PARTITION);
+
+            int at = slot * TAIL_BINS;
+            fft.realForward(window, accRe, accIm);
+            System.arraycopy(accRe, 0, spectraRe, at, TAIL_BINS);
+            System.arraycopy(accIm, 0, spectraIm, at, TAIL_BINS);
+            convolveTail(jobResponses[job], tailResults[jobResultSlots[job]]);
+            if (jobFadeFrom[job] != null) {
+                convolveTail(jobFadeFrom[job], fadeResult);
+            }
+            slot = slot + 1 == TAIL_SLOTS ? 0 : slot + 1;
+
+            System.arraycopy(window, TAIL_PARTITION, window, 0, TAIL_PARTITION);
+        }
+
+        private void convolveTail(ImpulseResponse ir, double[] result) {
+            Arrays.fill(accRe, 0.0);
+            Arrays.fill(accIm, 0.0);
+            int parts = ir != null ? ir.getTailPartitions() : 0;
+            for (int p = 0; p < parts; p++) {
+                int s = slot - p;
+                if (s < 0) {
+                    s += TAIL_SLOTS;
+                }
+                multiplyAccumulate(spectraRe, spectraIm, s * TAIL_BINS,
+                    ir.tailRe, ir.tailIm, p * TAIL_BINS, accRe, accIm, TAIL_BINS);
+            }
+            if (parts > 0) {
+                fft.realInverse(accRe, accIm, block);
+                System.arraycopy(block, TAIL_PARTITION, result, 0, TAIL_PARTITION);
+            } else {
+                Arrays.fill(result, 0.0); // a response that fits in the head; history is still kept
+            }
+        }
+
+        private void waitForWork(long done) {
+            for (int i = 0; i < SPIN_LIMIT; i++) {
+                if (submitted != done || !running) {
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+            parked = true;
+            // Re-check after advertising, so a submission racing with us isn't missed
+            if (submitted == done && running) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+}
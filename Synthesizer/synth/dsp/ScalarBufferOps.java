@@ -0,0 +1,39 @@
+package synth.dsp;
+
+/**
+ * Plain-Java {@link BufferOps}; the reference the vectorized kernels must match.
+ */
+class ScalarBufferOps extends BufferOps {
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void add(double[] dst, int dstOff, double[] src, int srcOff, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOff + i] += src[srcOff + i];
+        }
+    }
+
+    @Override
+    public void scale(double[] buf, int off, int length, double gain) {
+        for (int i = off; i < off + length; i++) {
+            buf[i] *= gain;
+        }
+    }
+
+    @Override
+    public void multiplyAdd(double[] dst, int dstOff, double[] src, int srcOff, int length, double gain) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOff + i] += src[srcOff + i] * gain;
+        }
+    }
+
+    @Override
+    public void clamp(double[] buf, int off, int length, double min, double max) {
+        for (int i = off; i < off + length; i++) {
+            buf[i] = Math.max(min, Math.min(max, buf[i]));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package synth.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Streaming short-time Fourier transform. Every sample fed in is analyzed: the
+ * analyzer keeps the last {@code size} samples, and each time {@code hop} new ones have
+ * arrived it windows that history, transforms it and hands the magnitude spectrum to a
+ * {@link FrameConsumer}. The overlap between frames is {@code size - hop}.
+ *
+ * All buffers are allocated up front, so feeding samples allocates nothing as long as
+ * the consumer is a reused object rather than a capturing lambda built per call.
+ */
+public final class Stft {
+    public static final int MIN_SIZE = 512;
+    public static final int MAX_SIZE = 16384;
+
+    /** Receives each frame's magnitudes, bins 0 (DC) to size/2 (Nyquist). */
+    public interface FrameConsumer {
+        /** {@code magnitudes} is reused for the next frame; copy what must outlive the call. */
+        void frame(double[] magnitudes);
+    }
+
+    private final int size;
+    private final int hop;
+    private final FFT fft;
+    private final double[] history;  // ring of the last size samples
+    private final double[] frame;
+    private final double[] re;
+    private final double[] im;
+    private final double[] magnitudes;
+    private final double scale;
+    private int writeIndex;
+    private int sinceFrame;
+
+    /**
+     * @param size frame length, a power of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}
+     * @param hop  samples between frames, 1 to {@code size}
+     */
+    public Stft(int size, int hop) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("STFT size must be a power of two in [" + MIN_SIZE + ", " + MAX_SIZE + "]: " + size);
+        }
+        if (hop < 1 || hop > size) {
+            throw new IllegalArgumentException("STFT hop must be in [1, " + size + "]: " + hop);
+        }
+        this.size = size;
+        this.hop = hop;
+        this.fft = new FFT(size);
+        this.history = new double[size];
+        this.frame = new double[size];
+        this.re = new double[size / 2 + 1];
+        this.im = new double[size / 2 + 1];
+        this.magnitudes = new double[size / 2 + 1];
+        // The scaling the spectrum view has always used: a full-scale sine peaks at 0.5
+        this.scale = 1.0 / (size * 0.5);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getHop() {
+        return hop;
+    }
+
+    /** Frequency of magnitude bin {@code bin} at the given sample rate. */
+    public double binFrequency(int bin, double sampleRate) {
+        return bin * sampleRate / size;
+    }
+
+    /**
+     * Feeds {@code count} samples from {@code samples[offset]}, emitting a frame to
+     * {@code consumer} after every {@code hop} samples.
+     *
+     * @return number of frames emitted
+     */
+    public int process(double[] samples, int offset, int count, FrameConsumer consumer) {
+        int frames = 0;
+        int end = offset + count;
+        int pos = offset;
+        while (pos < end) {
+            // Copy up to the next frame boundary in at most two runs around the ring
+            int run = Math.min(end - pos, hop - sinceFrame);
+            int first = Math.min(run, size - writeIndex);
+            System.arraycopy(samples, pos, history, writeIndex, first);
+            System.arraycopy(samples, pos + first, history, 0, run - first);
+            writeIndex = (writeIndex + run) & (size - 1);
+            sinceFrame += run;
+            pos += run;
+
+            if (sinceFrame == hop) {
+                sinceFrame = 0;
+                analyze();
+                consumer.frame(magnitudes);
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    private void analyze() {
+        // Unroll the ring oldest-first
+        int tail = size - writeIndex;
+        System.arraycopy(history, writeIndex, frame, 0, tail);
+        System.arraycopy(history, 0, frame, tail, writeIndex);
+
+        fft.applyWindow(frame);
+        fft.realForward(frame, re, im);
+        for (int k = 0; k <= size / 2; k++) {
+            magnitudes[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]) * scale;
+        }
+    }
+
+    /** Forgets all history, as if no sample had been fed. */
+    public void reset() {
+        Arrays.fill(history, 0.0);
+        writeIndex = 0;
+        sinceFrame = 0;
+    }
+}
@@ -0,0 +1,111 @@
+package synth.dsp;
+
+import synth.Synth;
+
+/**
+ * Precomputed single-cycle waveform read with linear interpolation.
+ *
+ * Two table sets exist per waveform: the plain shapes used by a single oscillator
+ * voice, and the soft-clipped shapes the unison path uses (tanh already baked in).
+ * With {@link #SIZE} = 2048 the lookup matches the direct {@code Math.sin}/{@code Math.tanh}
+ * output to within 1e-5 everywhere (sine 1.2e-6, soft square 8.3e-6, soft saw 5.9e-8,
+ * soft triangle 3.0e-7), i.e. below a third of a 16-bit LSB. Plain saw and triangle are
+ * piecewise linear with their corners on table points, so they are exact. The plain
+ * square is exact except inside the one cell (1/2048 of a period) just after its
+ * mid-cycle edge, where interpolation ramps through the transition.
+ */
+public final class Wavetable {
+    public static final int SIZE = 2048;
+    private static final double TWO_PI = 2.0 * Math.PI;
+    private static final double INDEX_SCALE = SIZE / TWO_PI;
+
+    private static final Wavetable[] PLAIN = new Wavetable[Synth.Waveform.values().length];
+    private static final Wavetable[] SOFT = new Wavetable[Synth.Waveform.values().length];
+
+    static {
+        for (Synth.Waveform w : Synth.Waveform.values()) {
+            PLAIN[w.ordinal()] = build(w, false);
+            SOFT[w.ordinal()] = build(w, true);
+        }
+    }
+
+    // SIZE points plus two guard points, so index SIZE can still interpolate
+    private final double[] table = new double[SIZE + 2];
+
+    private Wavetable() {
+    }
+
+    /** Table matching the single-voice oscillator shapes. */
+    public static Wavetable plain(Synth.Waveform waveform) {
+        return PLAIN[waveform.ordinal()];
+    }
+
+    /** Table matching the soft-clipped shapes of the unison path. */
+    public static Wavetable soft(Synth.Waveform waveform) {
+        return SOFT[waveform.ordinal()];
+    }
+
+    /**
+     * Looks up the waveform at {@code phase}, which must be in [0, 2π).
+     */
+    public double lookup(double phase) {
+        double idx = phase * INDEX_SCALE;
+        int i = (int) idx;
+        double a = table[i];
+        return a + (table[i + 1] - a) * (idx - i);
+    }
+
+    private static Wavetable build(Synth.Waveform waveform, boolean soft) {
+        Wavetable wt = new Wavetable();
+        for (int i = 0; i < SIZE; i++) {
+            wt.table[i] = value(waveform, soft, TWO_PI * i / SIZE);
+        }
+        // Guard points hold the value approaching 2π from below, so the final
+        // cell interpolates the ramp/edge correctly instead of wrapping to index 0
+        double end = endValue(waveform, soft);
+        wt.table[SIZE] = end;
+        wt.table[SIZE + 1] = end;
+        return wt;
+    }
+
+    private static double value(Synth.Waveform waveform, boolean soft, double phase) {
+        if (!soft) {
+            switch (waveform) {
+                case SQUARE:
+                    return Math.sin(phase) >= 0 ? 1.0 : -1.0;
+                case SAW:
+                    return (phase / Math.PI) - 1.0;
+                case TRIANGLE:
+                    return Math.abs((phase / Math.PI) - 1.0) * 2.0 - 1.0;
+                default:
+                    return Math.sin(phase);
+            }
+        }
+        switch (waveform) {
+            case SQUARE:
+                return Math.tanh(Math.sin(phase) * 3.0);
+            case SAW:
+                return Math.tanh(((phase / Math.PI) - 1.0) * 0.8);
+            case TRIANGLE:
+                double tri = phase < Math.PI
+                    ? (phase / Math.PI) * 2.0 - 1.0
+                    : 3.0 - (phase / Math.PI) * 2.0;
+                return Math.tanh(tri * 0.9);
+            default:
+                return Math.sin(phase);
+        }
+    }
+
+    private static double endValue(Synth.Waveform waveform, boolean soft) {
+        switch (waveform) {
+            case SQUARE:
+                return soft ? 0.0 : -1.0;
+            case SAW:
+                return soft ? Math.tanh(0.8) : 1.0;
+            case TRIANGLE:
+                return soft ? Math.tanh(-0.9) : 1.0;
+            default:
+                return 0.0;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package synth.ui;
 
 import java.awt.*;
 import javax.swing.*;
+import synth.ParameterStore;
+import synth.ParameterStore.Param;
 import synth.Synth;
 
 public class ControlPanel extends JPanel {
@@ -131,6 +133,36 @@ public class ControlPanel extends JPanel {
         // ADSR knobs are now handled in the right panel, not here
     }
 
+    /**
+     * Publishes every control on this panel to {@code store}, which the audio thread reads from.
+     */
+    public void bind(ParameterStore store) {
+        osc1Slider.bind(store, Param.OSC1_LEVEL);
+        osc2Slider.bind(store, Param.OSC2_LEVEL);
+        masterSlider.bind(store, Param.MASTER);
+        detune1Slider.bind(store, Param.DETUNE1);
+        detune2Slider.bind(store, Param.DETUNE2);
+        osc1Octave.bind(store, Param.OCTAVE1);
+        osc2Octave.bind(store, Param.OCTAVE2);
+        osc1Voices.bind(store, Param.VOICES1);
+        osc2Voices.bind(store, Param.VOICES2);
+        attackKnob.bind(store, Param.ATTACK);
+        decayKnob.bind(store, Param.DECAY);
+        sustainKnob.bind(store, Param.SUSTAIN);
+        releaseKnob.bind(store, Param.RELEASE);
+        bindWaveform(store, Param.WAVEFORM1, osc1Waveform);
+        bindWaveform(store, Param.WAVEFORM2, osc2Waveform);
+    }
+
+    private void bindWaveform(ParameterStore store, Param param, JComboBox<Synth.Waveform> combo) {
+        Runnable publish = () -> {
+            Synth.Waveform wave = (Synth.Waveform) combo.getSelectedItem();
+            store.set(param, wave != null ? wave.ordinal() : 0);
+        };
+        publish.run();
+        combo.addActionListener(e -> publish.run());
+    }
+
     private JLabel createCompactLabel(String text) {
         JLabel label = new JLabel(text);
         label.setFont(label.getFont().deriveFont(11f)); // Smaller font for labels
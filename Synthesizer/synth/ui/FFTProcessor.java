@@ -1,38 +1,116 @@
 package synth.ui;
 
+import synth.Synth;
+import synth.dsp.Stft;
+
+/**
+ * Spectrum for the analyzer view. Audio is streamed through an {@link Stft}, so every
+ * sample is analyzed with overlapping frames; each frame updates a peak-hold smoothed
+ * spectrum, which is folded into {@code NUM_BINS} log-spaced display bins through an
+ * index map computed once per FFT size.
+ */
 public class FFTProcessor {
-    private static final int FFT_SIZE = 512;
+    public static final int DEFAULT_FFT_SIZE = 4096;
+    public static final int DEFAULT_HOP = 1024;
     private static final int SAMPLE_RATE = 44100;
     private static final float SMOOTHING_FACTOR = 0.3f;
     
-    private float[] spectrum;
-    private float[] smoothedSpectrum;
+    private final float[] spectrum;
+    private final float[] smoothedSpectrum;
     private static final int NUM_BINS = 100;
     private static final int MIN_FREQ = 20;
     private static final int MAX_FREQ = 20000;
     
+    // Analysis state, built once so processing allocates nothing
+    private final Stft stft;
+    private final Stft.FrameConsumer onFrame = this::smoothFrame;
+    private final double[] pcmSamples = new double[Synth.BUFFER_SIZE];
+    private final float[] binValues = new float[NUM_BINS];
+
+    // Display bin i takes the max of smoothedSpectrum[binStart[i] .. binEnd[i])
+    private final int[] binStart = new int[NUM_BINS];
+    private final int[] binEnd = new int[NUM_BINS];
+    
     public FFTProcessor() {
-        spectrum = new float[FFT_SIZE/2];
-        smoothedSpectrum = new float[FFT_SIZE/2];
+        this(DEFAULT_FFT_SIZE, DEFAULT_HOP);
+    }
+
+    /**
+     * @param fftSize frame length, a power of two from 512 to 16384; larger resolves the
+     *                low end more finely at the cost of time resolution
+     * @param hop     samples between frames; fftSize / hop frames overlap each sample
+     */
+    public FFTProcessor(int fftSize, int hop) {
+        stft = new Stft(fftSize, hop);
+        spectrum = new float[fftSize/2];
+        smoothedSpectrum = new float[fftSize/2];
+        buildBinMap(fftSize);
+    }
+
+    /**
+     * Log-spaced band edges from MIN_FREQ to MAX_FREQ, as spectrum index ranges. A band
+     * narrower than one FFT bin (the low end of small FFTs) reads the bin its centre
+     * frequency falls in, rather than showing as a gap.
+     */
+    private void buildBinMap(int fftSize) {
+        double binHz = (double) SAMPLE_RATE / fftSize;
+        int last = fftSize/2 - 1;
+        for (int i = 0; i < NUM_BINS; i++) {
+            double startFreq = MIN_FREQ * Math.pow((double) MAX_FREQ / MIN_FREQ, (double) i / NUM_BINS);
+            double endFreq = MIN_FREQ * Math.pow((double) MAX_FREQ / MIN_FREQ, (double) (i + 1) / NUM_BINS);
+            int start = (int) Math.min(last + 1, Math.ceil(startFreq / binHz));
+            int end = (int) Math.min(last + 1, Math.ceil(endFreq / binHz));
+            if (start >= end) {
+                start = (int) Math.min(last, Math.round(Math.sqrt(startFreq * endFreq) / binHz));
+                end = start + 1;
+            }
+            binStart[i] = start;
+            binEnd[i] = end;
+        }
     }
     
+    /**
+     * Streams every frame of 16-bit little-endian PCM through the analyzer and returns
+     * the display bins. Allocates nothing; the returned array is reused by the next call.
+     */
     public float[] processAudio(byte[] audioData) {
-        // Convert byte array to float array with proper signed conversion
-        float[] audio = new float[FFT_SIZE];
-        for (int i = 0; i < Math.min(audioData.length/2, FFT_SIZE); i++) {
-            // Convert signed 16-bit PCM to float (-1.0 to 1.0)
-            short sample = (short)((audioData[i*2] & 0xFF) | (audioData[i*2 + 1] << 8));
-            audio[i] = sample / (float)Short.MAX_VALUE;
+        int frames = audioData.length / 2;
+        for (int done = 0; done < frames; ) {
+            int chunk = Math.min(frames - done, pcmSamples.length);
+            // Convert signed 16-bit PCM to -1.0 .. 1.0
+            for (int i = 0; i < chunk; i++) {
+                int b = (done + i) * 2;
+                short sample = (short)((audioData[b] & 0xFF) | (audioData[b + 1] << 8));
+                pcmSamples[i] = sample / (double)Short.MAX_VALUE;
+            }
+            stft.process(pcmSamples, 0, chunk, onFrame);
+            done += chunk;
         }
+        return getBinValues();
+    }
 
-        // Apply Hanning window
-        for (int i = 0; i < FFT_SIZE; i++) {
-            audio[i] *= 0.5 * (1 - Math.cos(2*Math.PI*i / (FFT_SIZE-1)));
+    /**
+     * Same as {@link #processAudio} for floating-point samples, e.g. read from an
+     * {@link synth.AudioTap}. Samples are clamped to -1.0 .. 1.0 first, as the output
+     * stage does, so the display shows what the device plays, clipping included.
+     */
+    public float[] processSamples(double[] samples, int frames) {
+        for (int done = 0; done < frames; ) {
+            int chunk = Math.min(frames - done, pcmSamples.length);
+            for (int i = 0; i < chunk; i++) {
+                pcmSamples[i] = Math.max(-1.0, Math.min(1.0, samples[done + i]));
+            }
+            stft.process(pcmSamples, 0, chunk, onFrame);
+            done += chunk;
+        }
+        return getBinValues();
+    }
+
+    private void smoothFrame(double[] magnitudes) {
+        for (int i = 0; i < spectrum.length; i++) {
+            spectrum[i] = (float) magnitudes[i];
         }
 
-        // Compute FFT
-        computeFFT(audio);
-        
         // Apply responsive smoothing
         for (int i = 0; i < spectrum.length; i++) {
             float current = spectrum[i];
@@ -45,80 +123,17 @@ public class FFTProcessor {
                 smoothedSpectrum[i] = smoothed * (1 - SMOOTHING_FACTOR) + current * SMOOTHING_FACTOR;
             }
         }
-        
-        return getBinValues();
     }
     
-    private void computeFFT(float[] audio) {
-        // Simple FFT implementation
-        float[] real = new float[FFT_SIZE];
-        float[] imag = new float[FFT_SIZE];
-        System.arraycopy(audio, 0, real, 0, FFT_SIZE);
-
-        // Perform FFT
-        fft(real, imag);
-
-        // Compute magnitude spectrum with proper normalization for dB scale
-        for (int i = 0; i < FFT_SIZE/2; i++) {
-            float magnitude = (float) Math.sqrt(real[i]*real[i] + imag[i]*imag[i]);
-            // Normalize by FFT size and apply window correction factor
-            // This will give us proper dB values where 0dB represents full scale
-            spectrum[i] = magnitude / (FFT_SIZE * 0.5f);
-        }
-    }
-    
-    private void fft(float[] real, float[] imag) {
-        int n = real.length;
-        if (n == 1) return;
-
-        float[] realEven = new float[n/2];
-        float[] imagEven = new float[n/2];
-        float[] realOdd = new float[n/2];
-        float[] imagOdd = new float[n/2];
-
-        for (int i = 0; i < n/2; i++) {
-            realEven[i] = real[2*i];
-            imagEven[i] = imag[2*i];
-            realOdd[i] = real[2*i+1];
-            imagOdd[i] = imag[2*i+1];
-        }
-
-        fft(realEven, imagEven);
-        fft(realOdd, imagOdd);
-
-        for (int k = 0; k < n/2; k++) {
-            double theta = -2 * Math.PI * k / n;
-            float c = (float) Math.cos(theta);
-            float s = (float) Math.sin(theta);
-            float tReal = c * realOdd[k] - s * imagOdd[k];
-            float tImag = s * realOdd[k] + c * imagOdd[k];
-            real[k] = realEven[k] + tReal;
-            imag[k] = imagEven[k] + tImag;
-            real[k + n/2] = realEven[k] - tReal;
-            imag[k + n/2] = imagEven[k] - tImag;
-        }
-    }
-    
-    private float[] getBinValues() {
-        float[] binValues = new float[NUM_BINS];
-        
-        // Calculate bin values with improved frequency mapping
+    /** Folds the smoothed spectrum into the display bins in one pass over the map. */
+    public float[] getBinValues() {
         for (int i = 0; i < NUM_BINS; i++) {
-            float startFreq = (float)(MIN_FREQ * Math.pow(MAX_FREQ/MIN_FREQ, (float)i/NUM_BINS));
-            float endFreq = (float)(MIN_FREQ * Math.pow(MAX_FREQ/MIN_FREQ, (float)(i+1)/NUM_BINS));
-            
             float max = 0;
-            
-            for (int j = 0; j < smoothedSpectrum.length; j++) {
-                float freq = j * SAMPLE_RATE / FFT_SIZE;
-                if (freq >= startFreq && freq < endFreq) {
-                    max = Math.max(max, smoothedSpectrum[j]);
-                }
+            for (int j = binStart[i]; j < binEnd[i]; j++) {
+                max = Math.max(max, smoothedSpectrum[j]);
             }
-            
             binValues[i] = max;
         }
-        
         return binValues;
     }
     
@@ -132,7 +147,11 @@ public class FFTProcessor {
     }
     
     public int getFFTSize() {
-        return FFT_SIZE;
+        return stft.getSize();
+    }
+
+    public int getHopSize() {
+        return stft.getHop();
     }
     
     public int getSampleRate() {
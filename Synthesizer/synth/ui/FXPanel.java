@@ -1,10 +1,24 @@
 package synth.ui;
 
 import java.awt.*;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import synth.MasterEffects;
+import synth.ParameterStore;
+import synth.ParameterStore.Param;
+import synth.Synth;
+import synth.dsp.ImpulseResponse;
 
 public class FXPanel extends JPanel {
-    public JSlider delayTime, delayMix, reverbAmount;
+    public JSlider delayTime, delayMix, delayFeedback, delayDamping;
+    public JSlider reverbAmount, reverbDecay, reverbDamping, convolutionAmount;
+    public JCheckBox delayEnabled;
+    public JButton loadImpulse;
+    public JLabel impulseName;
+    private MasterEffects effects;
+    private JFileChooser chooser;
 
     public FXPanel() {
         setLayout(new GridBagLayout());
@@ -14,6 +28,8 @@ public class FXPanel extends JPanel {
 
         int row = 0;
 
+        delayEnabled = new JCheckBox("Enable Delay");
+
         delayTime = new JSlider(50, 1000, 300);
         delayTime.setPaintTicks(true);
         delayTime.setPaintLabels(true);
@@ -27,6 +43,20 @@ public class FXPanel extends JPanel {
         delayMix.setMajorTickSpacing(20);
         delayMix.setMinorTickSpacing(5);
         delayMix.setPreferredSize(new Dimension(0, 30));
+
+        delayFeedback = new JSlider(0, 95, 35);
+        delayFeedback.setPaintTicks(true);
+        delayFeedback.setPaintLabels(true);
+        delayFeedback.setMajorTickSpacing(20);
+        delayFeedback.setMinorTickSpacing(5);
+        delayFeedback.setPreferredSize(new Dimension(0, 30));
+
+        delayDamping = new JSlider(0, 95, 30);
+        delayDamping.setPaintTicks(true);
+        delayDamping.setPaintLabels(true);
+        delayDamping.setMajorTickSpacing(20);
+        delayDamping.setMinorTickSpacing(5);
+        delayDamping.setPreferredSize(new Dimension(0, 30));
         
         reverbAmount = new JSlider(0, 100, 20);
         reverbAmount.setPaintTicks(true);
@@ -35,9 +65,119 @@ public class FXPanel extends JPanel {
         reverbAmount.setMinorTickSpacing(5);
         reverbAmount.setPreferredSize(new Dimension(0, 30));
 
+        reverbDecay = new JSlider(1, 100, 20);
+        reverbDecay.setPaintTicks(true);
+        reverbDecay.setPaintLabels(true);
+        reverbDecay.setMajorTickSpacing(20);
+        reverbDecay.setMinorTickSpacing(5);
+        reverbDecay.setPreferredSize(new Dimension(0, 30));
+
+        reverbDamping = new JSlider(0, 100, 50);
+        reverbDamping.setPaintTicks(true);
+        reverbDamping.setPaintLabels(true);
+        reverbDamping.setMajorTickSpacing(20);
+        reverbDamping.setMinorTickSpacing(5);
+        reverbDamping.setPreferredSize(new Dimension(0, 30));
+
+        convolutionAmount = new JSlider(0, 100, 30);
+        convolutionAmount.setPaintTicks(true);
+        convolutionAmount.setPaintLabels(true);
+        convolutionAmount.setMajorTickSpacing(20);
+        convolutionAmount.setMinorTickSpacing(5);
+        convolutionAmount.setPreferredSize(new Dimension(0, 30));
+
+        // Enabled once attached to the engine's effects
+        loadImpulse = new JButton("Load IR...");
+        loadImpulse.setEnabled(false);
+        loadImpulse.addActionListener(e -> chooseImpulseResponse());
+        impulseName = new JLabel("No impulse response");
+
+        gbc.gridx = 0; gbc.gridy = row++;
+        gbc.gridwidth = 2;
+        add(delayEnabled, gbc);
+        gbc.gridwidth = 1;
+
         addRow(gbc, row++, "Delay Time (ms)", delayTime);
         addRow(gbc, row++, "Delay Mix (%)", delayMix);
+        addRow(gbc, row++, "Delay Feedback (%)", delayFeedback);
+        addRow(gbc, row++, "Delay Damping (%)", delayDamping);
         addRow(gbc, row++, "Reverb Amount (%)", reverbAmount);
+        addRow(gbc, row++, "Reverb Decay (x0.1 s)", reverbDecay);
+        addRow(gbc, row++, "Reverb Damping (%)", reverbDamping);
+        addRow(gbc, row++, "Convolution Mix (%)", convolutionAmount);
+        JPanel impulse = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        impulse.add(loadImpulse);
+        impulse.add(impulseName);
+        addRow(gbc, row++, "Impulse Response", impulse);
+    }
+
+    /**
+     * Publishes the delay, reverb and convolution controls to {@code store}, which the audio thread reads from.
+     */
+    public void bind(ParameterStore store) {
+        bindCheckBox(store, Param.DELAY_ENABLED, delayEnabled);
+        bindSlider(store, Param.DELAY_TIME, delayTime);
+        bindSlider(store, Param.DELAY_MIX, delayMix);
+        bindSlider(store, Param.DELAY_FEEDBACK, delayFeedback);
+        bindSlider(store, Param.DELAY_DAMPING, delayDamping);
+        bindSlider(store, Param.REVERB_AMOUNT, reverbAmount);
+        bindSlider(store, Param.REVERB_DECAY, reverbDecay);
+        bindSlider(store, Param.REVERB_DAMPING, reverbDamping);
+        bindSlider(store, Param.CONVOLUTION_AMOUNT, convolutionAmount);
+    }
+
+    /** Lets the IR button load impulse responses into {@code effects}. */
+    public void attach(MasterEffects effects) {
+        this.effects = effects;
+        loadImpulse.setEnabled(true);
+    }
+
+    private void chooseImpulseResponse() {
+        if (chooser == null) {
+            chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("WAV impulse responses", "wav"));
+        }
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        loadImpulse.setEnabled(false);
+        impulseName.setText("Loading " + file.getName() + "...");
+
+        // Reading and transforming a long response takes a moment; keep it off the EDT
+        new SwingWorker<ImpulseResponse, Void>() {
+            @Override
+            protected ImpulseResponse doInBackground() throws Exception {
+                return ImpulseResponse.load(file.toPath());
+            }
+
+            @Override
+            protected void done() {
+                loadImpulse.setEnabled(true);
+                try {
+                    ImpulseResponse response = get();
+                    effects.setImpulseResponse(response);
+                    impulseName.setText(String.format("%s (%.1f s)", response.getName(),
+                        response.getLength() / Synth.SAMPLE_RATE));
+                } catch (InterruptedException | ExecutionException e) {
+                    ImpulseResponse current = effects.getImpulseResponse();
+                    impulseName.setText(current != null ? current.getName() : "No impulse response");
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(FXPanel.this, cause.getMessage(),
+                        "Impulse response", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private static void bindSlider(ParameterStore store, Param param, JSlider slider) {
+        store.set(param, slider.getValue());
+        slider.addChangeListener(e -> store.set(param, slider.getValue()));
+    }
+
+    private static void bindCheckBox(ParameterStore store, Param param, JCheckBox box) {
+        store.set(param, box.isSelected());
+        box.addItemListener(e -> store.set(param, box.isSelected()));
     }
 
     private void addRow(GridBagConstraints gbc, int row, String label, JComponent comp) {
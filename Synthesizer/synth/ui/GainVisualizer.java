@@ -7,18 +7,20 @@ import synth.GainMeter;
 
 public class GainVisualizer extends JPanel {
     private static final int SEGMENTS = 30;
-    private int displayPeak = 0;
+    private static final Color UNLIT = new Color(80, 80, 80);
+    private int litRms = 0;
+    private int peakSegment = -1;
     private boolean clipping = false;
     private final GainMeter gainMeter;
 
+    // Ballistics live in the GainMeter; this only turns its readings into LED segments
     public GainVisualizer(GainMeter gainMeter) {
         this.gainMeter = gainMeter;
         setPreferredSize(new Dimension(20, 0));
         new Timer(50, e -> {
             clipping = gainMeter.isClipping();
-            int peak = gainMeter.getPeak();
-            int smoothed = (displayPeak * 4 + peak) / 5;
-            displayPeak = Math.max(peak, smoothed);
+            litRms = (int) Math.ceil(Math.min(1.0, gainMeter.getRmsLevel()) * SEGMENTS);
+            peakSegment = (int) Math.ceil(Math.min(1.0, gainMeter.getPeakLevel()) * SEGMENTS) - 1;
             repaint();
         }).start();
     }
@@ -28,12 +30,12 @@ public class GainVisualizer extends JPanel {
         super.paintComponent(g);
         int w = getWidth(), h = getHeight();
         int segH = h / SEGMENTS;
-        int lit = (int)Math.ceil((displayPeak / 127.0) * SEGMENTS);
         for (int i = 0; i < SEGMENTS; i++) {
             int y = h - (i + 1) * segH;
-            g.setColor(new Color(80, 80, 80));
+            g.setColor(UNLIT);
             g.fillRect(0, y, w, segH - 2);
-            if (i < lit) {
+            // RMS as a solid column, the peak as a single segment above it
+            if (i < litRms || i == peakSegment) {
                 if (clipping) g.setColor(Color.RED);
                 else if (i < SEGMENTS * 0.7) g.setColor(Color.GREEN);
                 else if (i < SEGMENTS * 0.9) g.setColor(Color.YELLOW);
@@ -42,4 +44,4 @@ public class GainVisualizer extends JPanel {
             }
         }
     }
-}
\ No newline at end of file
+}
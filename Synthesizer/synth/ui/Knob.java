@@ -6,6 +6,7 @@ import java.awt.event.*;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import javax.swing.*;
+import synth.ParameterStore;
 
 /**
  * A rotary knob control with 0–100 mapping, showing percent outside on drag, ms beneath label.
@@ -47,6 +48,18 @@ public class Knob extends JComponent {
         pcs.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Publishes this knob's value to {@code store} now and on every change.
+     */
+    public void bind(ParameterStore store, ParameterStore.Param param) {
+        store.set(param, value);
+        addPropertyChangeListener(evt -> {
+            if ("value".equals(evt.getPropertyName())) {
+                store.set(param, (Integer) evt.getNewValue());
+            }
+        });
+    }
+
     private void updateValue(MouseEvent e) {
         int cx = getWidth()/2;
         int cy = getHeight()/2 - 10;
@@ -1,16 +1,31 @@
 package synth.ui;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.*;
-import synth.dsp.LFOEngine;
+import synth.ParameterStore;
+import synth.ParameterStore.Param;
 
 public class ModulationPanel extends JPanel {
+    // In ModulationMatrix.Source and Destination order
+    private static final String[] MOD_SOURCES = {"LFO 1", "LFO 2", "Mod Env", "Velocity", "Key Track"};
+    private static final String[] MOD_DESTINATIONS = {"Pitch", "Volume", "Cutoff", "Resonance", "Detune"};
+    private static final Param[][] MOD_SLOT_PARAMS = {
+        {Param.MOD1_SOURCE, Param.MOD1_DEST, Param.MOD1_AMOUNT},
+        {Param.MOD2_SOURCE, Param.MOD2_DEST, Param.MOD2_AMOUNT},
+        {Param.MOD3_SOURCE, Param.MOD3_DEST, Param.MOD3_AMOUNT},
+    };
+
     public JComboBox<String> filterType;
-    public JSlider cutoffSlider, resonanceSlider;
+    public JSlider cutoffSlider, resonanceSlider, filterEnvSlider;
+    public JSlider filterAttackSlider, filterDecaySlider, filterSustainSlider, filterReleaseSlider;
     public JSlider lfoRateSlider, lfoDepthSlider;
     public JComboBox<String> lfoTarget;
     public JCheckBox filterEnabled, lfoEnabled;
-    public final LFOEngine lfo;
+    public JSlider lfo2RateSlider, modEnvAttackSlider, modEnvDecaySlider;
+    public final List<JComboBox<String>> modSource, modDest;
+    public final JSlider[] modAmount;
 
     public ModulationPanel() {
         setLayout(new GridBagLayout());
@@ -18,11 +33,10 @@ public class ModulationPanel extends JPanel {
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(1, 1, 1, 1);
 
-        // Initialize LFO
-        lfo = new LFOEngine();
-
         // Filter controls
-        filterType = new JComboBox<>(new String[]{"Low-pass", "High-pass", "Band-pass"});
+        // Biquad responses, then the state-variable filter's modes (see Voice)
+        filterType = new JComboBox<>(new String[]{"Low-pass", "High-pass", "Band-pass",
+            "SVF Low-pass", "SVF High-pass", "SVF Band-pass", "SVF Notch"});
         cutoffSlider = new JSlider(0, 100, 50);  // Changed to percentage for logarithmic mapping
         cutoffSlider.setPaintTicks(true);
         cutoffSlider.setPaintLabels(true);
@@ -37,6 +51,19 @@ public class ModulationPanel extends JPanel {
         resonanceSlider.setMinorTickSpacing(5);
         resonanceSlider.setPreferredSize(new Dimension(0, 30));
         
+        // Filter envelope depth: how far each voice's filter envelope opens the cutoff
+        filterEnvSlider = new JSlider(0, 100, 0);
+        filterEnvSlider.setPaintTicks(true);
+        filterEnvSlider.setPaintLabels(true);
+        filterEnvSlider.setMajorTickSpacing(20);
+        filterEnvSlider.setMinorTickSpacing(5);
+        filterEnvSlider.setPreferredSize(new Dimension(0, 30));
+        // Its own contour, times in 10 ms steps like the mod envelope
+        filterAttackSlider = createSlider(0, 100, 0, 20, 5);
+        filterDecaySlider = createSlider(0, 100, 50, 20, 5);
+        filterSustainSlider = createSlider(0, 100, 0, 20, 5);
+        filterReleaseSlider = createSlider(0, 100, 30, 20, 5);
+
         filterEnabled = new JCheckBox("Enable Filter");
 
         // LFO controls
@@ -54,16 +81,24 @@ public class ModulationPanel extends JPanel {
         lfoDepthSlider.setMinorTickSpacing(5);
         lfoDepthSlider.setPreferredSize(new Dimension(0, 30));
         
-        lfoTarget = new JComboBox<>(new String[]{"Pitch", "Volume"});
+        lfoTarget = new JComboBox<>(MOD_DESTINATIONS);
         lfoEnabled = new JCheckBox("Enable LFO");
         lfoEnabled.setSelected(false); // Start with LFO disabled
-        lfo.setEnabled(false); // Ensure LFO is disabled initially
 
-        // Add LFO enable listener
-        lfoEnabled.addActionListener(e -> {
-            boolean enabled = lfoEnabled.isSelected();
-            lfo.setEnabled(enabled);
-        });
+        // Second LFO, modulation envelope (x10 ms like the amp envelope) and matrix slots
+        lfo2RateSlider = createSlider(0, 20, 1, 5, 1);
+        modEnvAttackSlider = createSlider(0, 100, 0, 20, 5);
+        modEnvDecaySlider = createSlider(0, 100, 50, 20, 5);
+        List<JComboBox<String>> sources = new ArrayList<>();
+        List<JComboBox<String>> destinations = new ArrayList<>();
+        modAmount = new JSlider[MOD_SLOT_PARAMS.length];
+        for (int i = 0; i < MOD_SLOT_PARAMS.length; i++) {
+            sources.add(new JComboBox<>(MOD_SOURCES));
+            destinations.add(new JComboBox<>(MOD_DESTINATIONS));
+            modAmount[i] = createSlider(-100, 100, 0, 50, 10);
+        }
+        modSource = List.copyOf(sources);
+        modDest = List.copyOf(destinations);
 
         // Add components
         gbc.gridx = 0;
@@ -86,28 +121,139 @@ public class ModulationPanel extends JPanel {
 
         gbc.gridx = 0;
         gbc.gridy = 3;
-        add(filterEnabled, gbc);
+        add(new JLabel("Filter Env:"), gbc);
+        gbc.gridx = 1;
+        add(filterEnvSlider, gbc);
 
         gbc.gridx = 0;
         gbc.gridy = 4;
+        add(new JLabel("Filter Attack:"), gbc);
+        gbc.gridx = 1;
+        add(filterAttackSlider, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        add(new JLabel("Filter Decay:"), gbc);
+        gbc.gridx = 1;
+        add(filterDecaySlider, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 6;
+        add(new JLabel("Filter Sustain:"), gbc);
+        gbc.gridx = 1;
+        add(filterSustainSlider, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 7;
+        add(new JLabel("Filter Release:"), gbc);
+        gbc.gridx = 1;
+        add(filterReleaseSlider, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 8;
+        add(filterEnabled, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 9;
         add(new JLabel("LFO Rate:"), gbc);
         gbc.gridx = 1;
         add(lfoRateSlider, gbc);
 
         gbc.gridx = 0;
-        gbc.gridy = 5;
+        gbc.gridy = 10;
         add(new JLabel("LFO Depth:"), gbc);
         gbc.gridx = 1;
         add(lfoDepthSlider, gbc);
 
         gbc.gridx = 0;
-        gbc.gridy = 6;
+        gbc.gridy = 11;
         add(new JLabel("LFO Target:"), gbc);
         gbc.gridx = 1;
         add(lfoTarget, gbc);
 
         gbc.gridx = 0;
-        gbc.gridy = 7;
+        gbc.gridy = 12;
         add(lfoEnabled, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 13;
+        add(new JLabel("LFO 2 Rate:"), gbc);
+        gbc.gridx = 1;
+        add(lfo2RateSlider, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 14;
+        add(new JLabel("Mod Env Attack:"), gbc);
+        gbc.gridx = 1;
+        add(modEnvAttackSlider, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 15;
+        add(new JLabel("Mod Env Decay:"), gbc);
+        gbc.gridx = 1;
+        add(modEnvDecaySlider, gbc);
+
+        for (int i = 0; i < MOD_SLOT_PARAMS.length; i++) {
+            JPanel slot = new JPanel(new GridLayout(1, 3, 2, 0));
+            slot.add(modSource.get(i));
+            slot.add(modDest.get(i));
+            slot.add(modAmount[i]);
+            gbc.gridx = 0;
+            gbc.gridy = 16 + i;
+            add(new JLabel("Mod " + (i + 1) + ":"), gbc);
+            gbc.gridx = 1;
+            add(slot, gbc);
+        }
+    }
+
+    private static JSlider createSlider(int min, int max, int value, int major, int minor) {
+        JSlider slider = new JSlider(min, max, value);
+        slider.setPaintTicks(true);
+        slider.setMajorTickSpacing(major);
+        slider.setMinorTickSpacing(minor);
+        slider.setPreferredSize(new Dimension(0, 30));
+        return slider;
+    }
+
+    /**
+     * Publishes every control on this panel to {@code store}, which the audio thread reads from.
+     */
+    public void bind(ParameterStore store) {
+        bindSlider(store, Param.CUTOFF, cutoffSlider);
+        bindSlider(store, Param.RESONANCE, resonanceSlider);
+        bindSlider(store, Param.FILTER_ENV, filterEnvSlider);
+        bindSlider(store, Param.FILTER_ATTACK, filterAttackSlider);
+        bindSlider(store, Param.FILTER_DECAY, filterDecaySlider);
+        bindSlider(store, Param.FILTER_SUSTAIN, filterSustainSlider);
+        bindSlider(store, Param.FILTER_RELEASE, filterReleaseSlider);
+        bindSlider(store, Param.LFO_RATE, lfoRateSlider);
+        bindSlider(store, Param.LFO_DEPTH, lfoDepthSlider);
+        bindCombo(store, Param.FILTER_TYPE, filterType);
+        bindCombo(store, Param.LFO_TARGET, lfoTarget);
+        bindCheckBox(store, Param.FILTER_ENABLED, filterEnabled);
+        bindCheckBox(store, Param.LFO_ENABLED, lfoEnabled);
+        bindSlider(store, Param.LFO2_RATE, lfo2RateSlider);
+        bindSlider(store, Param.MOD_ENV_ATTACK, modEnvAttackSlider);
+        bindSlider(store, Param.MOD_ENV_DECAY, modEnvDecaySlider);
+        for (int i = 0; i < MOD_SLOT_PARAMS.length; i++) {
+            bindCombo(store, MOD_SLOT_PARAMS[i][0], modSource.get(i));
+            bindCombo(store, MOD_SLOT_PARAMS[i][1], modDest.get(i));
+            bindSlider(store, MOD_SLOT_PARAMS[i][2], modAmount[i]);
+        }
+    }
+
+    private static void bindSlider(ParameterStore store, Param param, JSlider slider) {
+        store.set(param, slider.getValue());
+        slider.addChangeListener(e -> store.set(param, slider.getValue()));
+    }
+
+    private static void bindCombo(ParameterStore store, Param param, JComboBox<?> combo) {
+        store.set(param, combo.getSelectedIndex());
+        combo.addActionListener(e -> store.set(param, combo.getSelectedIndex()));
+    }
+
+    private static void bindCheckBox(ParameterStore store, Param param, JCheckBox box) {
+        store.set(param, box.isSelected());
+        box.addItemListener(e -> store.set(param, box.isSelected()));
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,9 @@
 package synth.ui;
 
 import java.awt.*;
+import java.util.Arrays;
 import javax.swing.*;
+import synth.AudioTap;
 
 public class SpectrumAnalyzer extends JPanel {
     private FFTProcessor fftProcessor;
@@ -9,25 +11,62 @@ public class SpectrumAnalyzer extends JPanel {
     private ControlPanel controls;
     private float[] currentBinValues;
 
+    // Analysis runs on the EDT at its own rate, draining everything played since the last
+    // refresh; -Dsynth.spectrumFps caps how often that happens and so how often we repaint
+    private static final int DEFAULT_FPS = 30;
+    private static final int MAX_FPS = 120;
+    private static final int REFRESH_MS = 1000 / Math.max(1, Math.min(MAX_FPS,
+        Integer.getInteger("synth.spectrumFps", DEFAULT_FPS)));
+    private AudioTap.Reader tapReader;
+    private final double[] tapChunk = new double[4096];
+    private final Timer refreshTimer;
+
     public SpectrumAnalyzer(ControlPanel controls) {
         this.controls = controls;
-        this.fftProcessor = new FFTProcessor();
+        // -Dsynth.spectrumSize / -Dsynth.spectrumHop trade low-end resolution against update rate
+        this.fftProcessor = new FFTProcessor(
+            Integer.getInteger("synth.spectrumSize", FFTProcessor.DEFAULT_FFT_SIZE),
+            Integer.getInteger("synth.spectrumHop", FFTProcessor.DEFAULT_HOP));
         this.renderer = new SpectrumRenderer();
         this.currentBinValues = new float[fftProcessor.getNumBins()];
+        this.refreshTimer = new Timer(REFRESH_MS, e -> analyzeTap());
         
         setPreferredSize(new Dimension(400, 200));
         setBackground(Color.BLACK);
     }
 
-    public void updateSpectrum(byte[] audioData) {
-        // Process audio data through FFT processor
-        currentBinValues = fftProcessor.processAudio(audioData);
-        repaint();
+    /**
+     * Starts analyzing {@code tap}: every refresh, all newly played samples are read and
+     * streamed through the STFT here, so none of it runs on the audio thread.
+     */
+    public void attach(AudioTap tap) {
+        this.tapReader = tap.newReader();
+        refreshTimer.start();
+    }
+
+    private void analyzeTap() {
+        int total = 0;
+        int read;
+        while ((read = tapReader.read(tapChunk, tapChunk.length)) > 0) {
+            fftProcessor.processSamples(tapChunk, read);
+            total += read;
+        }
+        // Repaint only when the bars actually moved; a silent or held spectrum costs nothing
+        float[] bins = fftProcessor.getBinValues();
+        if (total > 0 && !Arrays.equals(bins, currentBinValues)) {
+            System.arraycopy(bins, 0, currentBinValues, 0, currentBinValues.length);
+            repaint();
+        }
+    }
+
+    /** Tap overruns so far: audio the analyzer missed because a refresh came too late. */
+    public long getTapOverruns() {
+        return tapReader != null ? tapReader.getOverruns() : 0;
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
+        // No super call: the renderer's opaque background layer covers every pixel
         Graphics2D g2 = (Graphics2D) g;
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
@@ -1,76 +1,141 @@
 package synth.ui;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 
+/**
+ * Draws the analyzer. Everything that doesn't move (background, grid, dB and frequency
+ * labels) is rendered once into a cached opaque image and rebuilt only when the size or
+ * frequency range changes; the per-bin bar colours are likewise computed once. A
+ * repaint is then one image copy plus the bars, with no per-frame allocation.
+ */
 public class SpectrumRenderer {
     private static final float REFERENCE_LEVEL = 1.0f;  // 1.0 represents 0dB (full scale)
     private static final float MAX_DB = 6.0f;   // +6dB for clipping detection
     private static final float MIN_DB = -60.0f; // -60dB for dynamic range
     private static final float DB_RANGE = MAX_DB - MIN_DB;
-    
-    public void renderSpectrum(Graphics2D g2, int width, int height, float[] binValues, 
+
+    private static final Color BACKGROUND = Color.BLACK;
+    private static final Color GRID_COLOR = new Color(20, 20, 20);
+    private static final Color CLIP_COLOR = Color.RED;
+    private static final Color CLIP_HIGHLIGHT = CLIP_COLOR.brighter();
+    private static final Font LABEL_FONT = new Font("Arial", Font.PLAIN, 10);
+    private static final int[] FREQ_LABELS = {20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
+
+    // Static layer, valid for the size and range it was built for
+    private BufferedImage staticLayer;
+    private int layerWidth = -1;
+    private int layerHeight = -1;
+    private int layerMinFreq;
+    private int layerMaxFreq;
+
+    // Bar colours by bin, a hue sweep across the spectrum
+    private Color[] barColors = new Color[0];
+    private Color[] highlightColors = new Color[0];
+    private BasicStroke narrowStroke;
+
+    public void renderSpectrum(Graphics2D g2, int width, int height, float[] binValues,
                               int minFreq, int maxFreq, int numBins) {
-        // Draw background grid
-        g2.setColor(new Color(20, 20, 20));
-        for (int i = 0; i < 10; i++) {
-            int y = height * i / 10;
-            g2.drawLine(0, y, width, y);
+        if (width <= 0 || height <= 0) {
+            return;
         }
-        
-        // Draw frequency labels
-        g2.setColor(Color.GRAY);
-        g2.setFont(new Font("Arial", Font.PLAIN, 10));
-        int[] freqLabels = {20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
-        for (int freq : freqLabels) {
-            float x = (float) (Math.log(freq/minFreq) / Math.log(maxFreq/minFreq) * width);
-            g2.drawString(freq + "Hz", x - 15, height - 5);
+        if (staticLayer == null || width != layerWidth || height != layerHeight
+                || minFreq != layerMinFreq || maxFreq != layerMaxFreq) {
+            buildStaticLayer(g2, width, height, minFreq, maxFreq);
         }
-        
-        // Draw amplitude scale with 0dB as reference
-        g2.drawString("+6dB", 5, 15);      // Clipping level
-        g2.drawString("0dB", 5, height/2);  // Full scale reference
-        g2.drawString("-60dB", 5, height - 5); // Dynamic range bottom
-        
+        if (barColors.length != numBins) {
+            buildBarColors(numBins);
+        }
+        g2.drawImage(staticLayer, 0, 0, null);
+
         // Draw frequency spectrum with gradient
         float binWidth = (float)width / numBins;
         float barWidth = binWidth * 0.9f; // Make bars fill 90% of bin width for fuller look
         float barSpacing = binWidth * 0.1f; // 10% spacing between bars
-        
+        if (barWidth <= 2 && (narrowStroke == null || narrowStroke.getLineWidth() != barWidth)) {
+            narrowStroke = new BasicStroke(barWidth);
+        }
+
         // Draw bins
         for (int i = 0; i < numBins; i++) {
             float x = i * binWidth + barSpacing/2; // Center bars within bins
             float magnitude = binValues[i];
-            
+
             // Convert to dB scale where 0dB = full scale (1.0)
             float db = (float)(20 * Math.log10(magnitude / REFERENCE_LEVEL));
             float normalizedDb = Math.max(MIN_DB, Math.min(MAX_DB, db));
             float y = height * (1 - (normalizedDb - MIN_DB) / DB_RANGE);
-            
-            // Create gradient based on frequency
-            float hue = (float)i / numBins * 0.7f;
-            Color color = Color.getHSBColor(hue, 1.0f, 1.0f);
-            
-            // Change color to red if clipping (above 0dB)
-            if (db > 0) {
-                color = Color.RED;
-            }
-            
-            g2.setColor(color);
-            
+
+            // Red if clipping (above 0dB)
+            boolean clipping = db > 0;
+            g2.setColor(clipping ? CLIP_COLOR : barColors[i]);
+
             // Draw fuller bars with rounded corners effect
             if (barWidth > 2) {
                 // Draw main bar
                 g2.fillRect((int)x, (int)y, (int)barWidth, height - (int)y);
-                
+
                 // Add subtle highlight at top for 3D effect
-                Color highlightColor = color.brighter();
-                g2.setColor(highlightColor);
+                g2.setColor(clipping ? CLIP_HIGHLIGHT : highlightColors[i]);
                 g2.fillRect((int)x, (int)y, (int)barWidth, Math.max(2, (height - (int)y) / 8));
             } else {
                 // For very narrow bars, just draw a line
-                g2.setStroke(new BasicStroke(barWidth));
+                g2.setStroke(narrowStroke);
                 g2.drawLine((int)(x + barWidth/2), (int)y, (int)(x + barWidth/2), height);
             }
         }
     }
+
+    private void buildStaticLayer(Graphics2D target, int width, int height, int minFreq, int maxFreq) {
+        if (staticLayer != null) {
+            staticLayer.flush();
+        }
+        // Opaque and device-compatible, so drawing it is a straight copy with no blending
+        staticLayer = target.getDeviceConfiguration().createCompatibleImage(width, height, Transparency.OPAQUE);
+        layerWidth = width;
+        layerHeight = height;
+        layerMinFreq = minFreq;
+        layerMaxFreq = maxFreq;
+
+        Graphics2D g2 = staticLayer.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+            g2.setColor(BACKGROUND);
+            g2.fillRect(0, 0, width, height);
+
+            // Draw background grid
+            g2.setColor(GRID_COLOR);
+            for (int i = 0; i < 10; i++) {
+                int y = height * i / 10;
+                g2.drawLine(0, y, width, y);
+            }
+
+            // Draw frequency labels
+            g2.setColor(Color.GRAY);
+            g2.setFont(LABEL_FONT);
+            for (int freq : FREQ_LABELS) {
+                float x = (float) (Math.log((double) freq / minFreq) / Math.log((double) maxFreq / minFreq) * width);
+                g2.drawString(freq + "Hz", x - 15, height - 5);
+            }
+
+            // Draw amplitude scale with 0dB as reference
+            g2.drawString("+6dB", 5, 15);      // Clipping level
+            g2.drawString("0dB", 5, height/2);  // Full scale reference
+            g2.drawString("-60dB", 5, height - 5); // Dynamic range bottom
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private void buildBarColors(int numBins) {
+        barColors = new Color[numBins];
+        highlightColors = new Color[numBins];
+        for (int i = 0; i < numBins; i++) {
+            float hue = (float)i / numBins * 0.7f;
+            barColors[i] = Color.getHSBColor(hue, 1.0f, 1.0f);
+            highlightColors[i] = barColors[i].brighter();
+        }
+    }
 }
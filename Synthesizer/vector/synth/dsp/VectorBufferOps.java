@@ -0,0 +1,55 @@
+package synth.dsp;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BufferOps} on the Vector API at the platform's preferred width. Each kernel
+ * runs whole vectors over the bulk of the range and finishes the tail scalar. Kept
+ * in its own source root and only loaded through {@link BufferOps#vector()}, so the
+ * rest of the synth compiles and runs without the incubator module.
+ *
+ * Only the two-source kernels are hand-vectorized. C2 already auto-vectorizes the
+ * scalar in-place {@code scale} and {@code clamp} loops, and on JDK 17 they beat the
+ * explicit versions (0.10 vs 0.34 ns/sample for scale on AVX-512), so those are
+ * inherited unchanged.
+ */
+final class VectorBufferOps extends ScalarBufferOps {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = DOUBLES.length();
+
+    @Override
+    public String getName() {
+        return "vector x" + LANES;
+    }
+
+    @Override
+    public void add(double[] dst, int dstOff, double[] src, int srcOff, int length) {
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector a = DoubleVector.fromArray(DOUBLES, dst, dstOff + i);
+            DoubleVector b = DoubleVector.fromArray(DOUBLES, src, srcOff + i);
+            a.add(b).intoArray(dst, dstOff + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOff + i] += src[srcOff + i];
+        }
+    }
+
+    @Override
+    public void multiplyAdd(double[] dst, int dstOff, double[] src, int srcOff, int length, double gain) {
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        DoubleVector g = DoubleVector.broadcast(DOUBLES, gain);
+        for (; i < bound; i += LANES) {
+            DoubleVector a = DoubleVector.fromArray(DOUBLES, dst, dstOff + i);
+            DoubleVector b = DoubleVector.fromArray(DOUBLES, src, srcOff + i);
+            // mul then add, not fma: the scalar path rounds twice and so must we
+            a.add(b.mul(g)).intoArray(dst, dstOff + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOff + i] += src[srcOff + i] * gain;
+        }
+    }
+}